@@ -0,0 +1,35 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.Bulkhead;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @Description: 各组接口的舱壁，名额之和不应超过容器的工作线程数（tomcat 默认200）<br/>
+ * seckill：秒杀下单、订单状态，请求线程只做校验后交给秒杀线程池，名额满时不等待<br/>
+ * browse：商铺、商铺类型、优惠券、探店笔记等浏览接口<br/>
+ * other：其余接口（登录、关注、上传等）<br/>
+ * @Version: v1.0
+ */
+@Configuration
+public class BulkheadConfig {
+
+    @Bean
+    public Bulkhead seckillBulkhead(@Value("${hmdp.bulkhead.seckill.max-concurrent:50}") int maxConcurrent,
+                                    @Value("${hmdp.bulkhead.seckill.wait-ms:0}") long waitMillis) {
+        return new Bulkhead("seckill", maxConcurrent, waitMillis);
+    }
+
+    @Bean
+    public Bulkhead browseBulkhead(@Value("${hmdp.bulkhead.browse.max-concurrent:100}") int maxConcurrent,
+                                   @Value("${hmdp.bulkhead.browse.wait-ms:50}") long waitMillis) {
+        return new Bulkhead("browse", maxConcurrent, waitMillis);
+    }
+
+    @Bean
+    public Bulkhead otherBulkhead(@Value("${hmdp.bulkhead.other.max-concurrent:50}") int maxConcurrent,
+                                  @Value("${hmdp.bulkhead.other.wait-ms:1000}") long waitMillis) {
+        return new Bulkhead("other", maxConcurrent, waitMillis);
+    }
+}
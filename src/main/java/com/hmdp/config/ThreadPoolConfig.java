@@ -1,9 +1,11 @@
 package com.hmdp.config;
 
 import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -44,6 +46,50 @@ public class ThreadPoolConfig {
         return executor;
     }
 
+    /**
+     * 秒杀线程池：秒杀请求在这里执行，请求线程只做令牌校验后就交还容器，秒杀时不会占满容器线程；
+     * 队列满时直接拒绝（AbortPolicy），由调用方返回繁忙
+     */
+    @Bean(name = "seckillExecutor")
+    public ThreadPoolTaskExecutor seckillExecutor(@Value("${hmdp.seckill.executor.threads:32}") int threads,
+                                                  @Value("${hmdp.seckill.executor.queue:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("seckill-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+
+    /**
+     * 秒杀库存推送线程池：定时任务只读取库存，推送给各订阅者在这里执行，慢客户端不会阻塞定时任务线程；
+     * 队列满时跳过本次推送（AbortPolicy），订阅者等下一次推送
+     */
+    @Bean(name = "stockPushExecutor")
+    public ThreadPoolTaskExecutor stockPushExecutor(@Value("${hmdp.seckill.stock-push.threads:4}") int threads,
+                                                    @Value("${hmdp.seckill.stock-push.queue:10000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("stock-push-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        return executor;
+    }
+
+    /**
+     * 定时任务线程池：@Scheduled 默认只有一个线程，对账、开奖、缓存刷新、库存广播等任务会互相阻塞，
+     * 线程数应不少于同时运行的定时任务数
+     */
+    @Bean(name = "taskScheduler")
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${hmdp.scheduling.pool-size:8}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("scheduling-");
+        return scheduler;
+    }
+
     @Data
     class ThreadPoolProperties {
 
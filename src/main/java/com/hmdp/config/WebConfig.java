@@ -1,8 +1,12 @@
 package com.hmdp.config;
 
+import com.hmdp.config.interceptor.AdminInterceptor;
+import com.hmdp.config.interceptor.BulkheadInterceptor;
 import com.hmdp.config.interceptor.LoginInterceptor;
 import com.hmdp.config.interceptor.RefreshTokenInterceptor;
+import com.hmdp.utils.Bulkhead;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -20,8 +24,28 @@ public class WebConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private Bulkhead seckillBulkhead;
+
+    @Autowired
+    private Bulkhead browseBulkhead;
+
+    @Autowired
+    private Bulkhead otherBulkhead;
+
+    // 可以访问运维接口（/admin/**）的用户id，逗号分隔
+    @Value("${hmdp.admin.user-ids:}")
+    private String adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // 舱壁拦截器，在访问 redis 之前拒绝超出名额的请求
+        String[] seckillPaths = {"/voucher-order/**"};
+        String[] browsePaths = {"/shop/**", "/shop-type/**", "/voucher/**", "/blog/**"};
+        registry.addInterceptor(new BulkheadInterceptor(seckillBulkhead)).addPathPatterns(seckillPaths).order(-1);
+        registry.addInterceptor(new BulkheadInterceptor(browseBulkhead)).addPathPatterns(browsePaths).order(-1);
+        registry.addInterceptor(new BulkheadInterceptor(otherBulkhead)).addPathPatterns("/**")
+                .excludePathPatterns(seckillPaths).excludePathPatterns(browsePaths).order(-1);
         // token刷新的拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
         // 登录拦截器
@@ -35,6 +59,8 @@ public class WebConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login"
                 ).order(1);
+        // 运维接口只允许管理员访问
+        registry.addInterceptor(new AdminInterceptor(adminUserIds)).addPathPatterns("/admin/**").order(2);
     }
 }
 
@@ -0,0 +1,41 @@
+package com.hmdp.config.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @Description: 运维接口拦截器，只允许配置的管理员用户（hmdp.admin.user-ids，逗号分隔）访问，未配置时全部拒绝
+ * @Version: v1.0
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds;
+
+    public AdminInterceptor(String adminIds) {
+        this.adminIds = StrUtil.isBlank(adminIds) ? Collections.emptySet()
+                : StrUtil.split(adminIds, ',', true, true).stream().map(Long::valueOf).collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminIds.contains(user.getId())) {
+            // 不是管理员，禁止访问
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
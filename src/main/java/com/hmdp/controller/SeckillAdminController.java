@@ -0,0 +1,174 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.task.SeckillReconcileTask;
+import com.hmdp.task.SeckillWarmUpTask;
+import com.hmdp.utils.Bulkhead;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.SeckillBuyerTracker;
+import com.hmdp.utils.SeckillEngineRouter;
+import com.hmdp.utils.StripedLock;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * 秒杀运维接口，只允许 hmdp.admin.user-ids 中配置的用户访问（AdminInterceptor）
+ * </p>
+ *
+ */
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+
+    private final SeckillWarmUpTask seckillWarmUpTask;
+
+    private final SeckillEngineRouter seckillEngineRouter;
+
+    private final StripedLock stripedLock;
+
+    private final RedisLock redisLock;
+
+    private final SeckillBuyerTracker buyerTracker;
+
+    private final SeckillReconcileTask seckillReconcileTask;
+
+    private final List<Bulkhead> bulkheads;
+
+    public SeckillAdminController(SeckillWarmUpTask seckillWarmUpTask, SeckillEngineRouter seckillEngineRouter, StripedLock stripedLock, RedisLock redisLock, SeckillBuyerTracker buyerTracker, SeckillReconcileTask seckillReconcileTask, List<Bulkhead> bulkheads) {
+        this.seckillWarmUpTask = seckillWarmUpTask;
+        this.seckillEngineRouter = seckillEngineRouter;
+        this.stripedLock = stripedLock;
+        this.redisLock = redisLock;
+        this.buyerTracker = buyerTracker;
+        this.seckillReconcileTask = seckillReconcileTask;
+        this.bulkheads = bulkheads;
+    }
+
+    /**
+     * 预热所有未结束的秒杀券
+     *
+     * @return 预热的秒杀券数量
+     */
+    @PostMapping("/warm-up")
+    public Result warmUp() {
+        return Result.ok(seckillWarmUpTask.warmUp());
+    }
+
+    /**
+     * 预热指定的秒杀券
+     *
+     * @param voucherId 优惠券id
+     * @return 无
+     */
+    @PostMapping("/warm-up/{id}")
+    public Result warmUp(@PathVariable("id") Long voucherId) {
+        if (!seckillWarmUpTask.warmUp(voucherId)) {
+            return Result.fail("秒杀券不存在");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 各秒杀引擎的统计（请求数、成功、售罄、重复购买、耗时），以及各券使用的引擎
+     *
+     * @return 统计
+     */
+    @GetMapping("/engines")
+    public Result engines() {
+        return Result.ok(seckillEngineRouter.getStats());
+    }
+
+    /**
+     * 指定秒杀券使用的秒杀引擎，应在秒杀开始前指定
+     *
+     * @param voucherId 优惠券id
+     * @param engine    引擎名称：easy、only-one、redis-lock、async、lease
+     * @return 无
+     */
+    @PutMapping("/engine/{id}")
+    public Result assignEngine(@PathVariable("id") Long voucherId, @RequestParam("engine") String engine) {
+        if (!seckillEngineRouter.assign(voucherId, engine)) {
+            return Result.fail("秒杀引擎不存在");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 秒杀券恢复使用默认引擎
+     *
+     * @param voucherId 优惠券id
+     * @return 无
+     */
+    @DeleteMapping("/engine/{id}")
+    public Result resetEngine(@PathVariable("id") Long voucherId) {
+        seckillEngineRouter.assign(voucherId, null);
+        return Result.ok();
+    }
+
+    /**
+     * 进程内用户锁和 redis 锁的统计（加锁、竞争、超时次数和等待时间）
+     *
+     * @return 统计
+     */
+    @GetMapping("/locks")
+    public Result locks() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("striped", stripedLock.getStats());
+        stats.put("redis", redisLock.getStats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 对比秒杀券已购买用户集合和位图的内存占用
+     *
+     * @param voucherId 优惠券id
+     * @return 两种记录方式的用户数、内存（字节），以及按集合估算的位图大小
+     */
+    @GetMapping("/buyers/{id}/memory")
+    public Result buyersMemory(@PathVariable("id") Long voucherId) {
+        return Result.ok(buyerTracker.compareMemory(voucherId));
+    }
+
+    /**
+     * 立即对账 redis 库存、购买名额与数据库
+     *
+     * @return 对账报告
+     */
+    @PostMapping("/reconcile")
+    public Result reconcile() {
+        Map<String, Object> report = seckillReconcileTask.reconcile();
+        if (report == null) {
+            return Result.fail("对账正在进行中");
+        }
+        return Result.ok(report);
+    }
+
+    /**
+     * 最近一次对账报告
+     *
+     * @return 对账报告
+     */
+    @GetMapping("/reconcile")
+    public Result lastReconcileReport() {
+        return Result.ok(seckillReconcileTask.getLastReport());
+    }
+
+    /**
+     * 各组接口舱壁的统计（占用、放行、拒绝次数）
+     *
+     * @return 统计
+     */
+    @GetMapping("/bulkheads")
+    public Result bulkheads() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Bulkhead bulkhead : bulkheads) {
+            stats.put(bulkhead.getName(), bulkhead.getStats());
+        }
+        return Result.ok(stats);
+    }
+}
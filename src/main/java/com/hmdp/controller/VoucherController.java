@@ -4,7 +4,12 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillStockBroadcaster;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.Resource;
 
@@ -23,6 +28,9 @@ public class VoucherController {
     @Resource
     private IVoucherService voucherService;
 
+    @Resource
+    private SeckillStockBroadcaster seckillStockBroadcaster;
+
     /**
      * 新增普通券
      * @param voucher 优惠券信息
@@ -30,7 +38,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -45,6 +53,17 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 新增抽签券
+     * @param voucher 优惠券信息，beginTime ~ endTime 为报名时间，stock 为中签名额
+     * @return 优惠券id
+     */
+    @PostMapping("lottery")
+    public Result addLotteryVoucher(@RequestBody Voucher voucher) {
+        voucherService.addLotteryVoucher(voucher);
+        return Result.ok(voucher.getId());
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -54,4 +73,18 @@ public class VoucherController {
     public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
        return voucherService.queryVoucherOfShop(shopId);
     }
+
+    /**
+     * 订阅秒杀券的剩余库存（server-sent events），库存变化时推送 stock 事件，每个推送间隔最多一次
+     * @param voucherId 优惠券id
+     * @return 事件流
+     */
+    @GetMapping(value = "/{id}/stock/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStock(@PathVariable("id") Long voucherId) {
+        SseEmitter emitter = seckillStockBroadcaster.subscribe(voucherId);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
 }
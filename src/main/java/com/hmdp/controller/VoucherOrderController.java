@@ -2,11 +2,18 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.utils.SeckillAccessToken;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * <p>
@@ -16,18 +23,117 @@ import org.springframework.web.bind.annotation.RestController;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @RestController
 @RequestMapping("/voucher-order")
 public class VoucherOrderController {
 
     private final IVoucherOrderService voucherOrderService;
 
-    public VoucherOrderController(IVoucherOrderService voucherOrderService) {
+    private final SeckillWaitingRoom seckillWaitingRoom;
+
+    private final SeckillAccessToken seckillAccessToken;
+
+    private final ThreadPoolTaskExecutor seckillExecutor;
+
+    // 秒杀请求在秒杀线程池中最长执行时间（毫秒）
+    @Value("${hmdp.seckill.executor.timeout-ms:5000}")
+    private long seckillTimeout;
+
+    public VoucherOrderController(IVoucherOrderService voucherOrderService, SeckillWaitingRoom seckillWaitingRoom, SeckillAccessToken seckillAccessToken,
+                                  @Qualifier("seckillExecutor") ThreadPoolTaskExecutor seckillExecutor) {
         this.voucherOrderService = voucherOrderService;
+        this.seckillWaitingRoom = seckillWaitingRoom;
+        this.seckillAccessToken = seckillAccessToken;
+        this.seckillExecutor = seckillExecutor;
     }
 
+    /**
+     * 获取秒杀令牌，秒杀开始后才签发，有效期内用于秒杀接口
+     */
+    @GetMapping("/seckill/{id}/token")
+    public Result seckillToken(@PathVariable("id") Long voucherId) {
+        return seckillAccessToken.issue(voucherId, UserHolder.getUser().getId());
+    }
+
+    /**
+     * 秒杀（携带令牌），先在本地校验令牌，再在排队室排队，轮到时才真正执行，没轮到返回排队凭证（SeckillTicket）
+     */
+    @PostMapping("/seckill/{id}/{token}")
+    public DeferredResult<Result> seckillVoucher(@PathVariable("id") Long voucherId, @PathVariable("token") String token) {
+        Long userId = UserHolder.getUser().getId();
+        if (!seckillAccessToken.verify(voucherId, userId, token)) {
+            return completed(Result.fail("秒杀令牌无效或已过期"));
+        }
+        return seckillAsync(voucherId, UserHolder.getUser());
+    }
+
+    /**
+     * 秒杀（不带令牌），只在未开启令牌校验（hmdp.seckill.token.required=false）时可用
+     */
     @PostMapping("/seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-        return voucherOrderService.seckillVoucher(voucherId);
+    public DeferredResult<Result> seckillVoucher(@PathVariable("id") Long voucherId) {
+        if (seckillAccessToken.isRequired()) {
+            return completed(Result.fail("秒杀令牌无效或已过期"));
+        }
+        return seckillAsync(voucherId, UserHolder.getUser());
+    }
+
+    /**
+     * 在秒杀线程池中排队执行秒杀，请求线程立即交还容器；线程池已满时直接返回繁忙<br/>
+     * 订单id在各秒杀引擎中生成，超时时还拿不到，只能提示重新提交：已抢到时一人一单校验会返回已购买
+     */
+    private DeferredResult<Result> seckillAsync(Long voucherId, UserDTO user) {
+        DeferredResult<Result> deferredResult = new DeferredResult<>(seckillTimeout, () -> Result.fail("秒杀请求超时，结果未知，请重新提交（已抢到时会提示已购买）"));
+        try {
+            seckillExecutor.execute(() -> {
+                UserHolder.saveUser(user);
+                try {
+                    deferredResult.setResult(seckillWaitingRoom.enter(voucherId, user.getId(), () -> voucherOrderService.seckillVoucher(voucherId)));
+                } catch (Exception e) {
+                    log.error("秒杀失败，voucherId={}, userId={}", voucherId, user.getId(), e);
+                    deferredResult.setResult(Result.fail("秒杀失败，请稍后重试"));
+                } finally {
+                    UserHolder.removeUser();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            deferredResult.setResult(Result.fail("服务繁忙，请稍后重试"));
+        }
+        return deferredResult;
+    }
+
+    private static DeferredResult<Result> completed(Result result) {
+        DeferredResult<Result> deferredResult = new DeferredResult<>();
+        deferredResult.setResult(result);
+        return deferredResult;
+    }
+
+    /**
+     * 查询秒杀订单状态：queued 排队中，persisted 已创建，failed 创建失败
+     *
+     * @param orderId 订单id
+     * @param timeout 订单还在排队时最长等待的毫秒数（最多30秒），0表示立即返回
+     */
+    @GetMapping("/{id}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        return voucherOrderService.queryOrderStatus(orderId, timeout);
+    }
+
+    /**
+     * 报名抽签券，报名截止后统一开奖
+     */
+    @PostMapping("/lottery/{id}")
+    public Result enterLottery(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.enterLottery(voucherId);
+    }
+
+    /**
+     * 查询抽签结果：pending 未开奖，won 中签（含订单id），lost 未中签
+     */
+    @GetMapping("/lottery/{id}")
+    public Result queryLotteryResult(@PathVariable("id") Long voucherId) {
+        return voucherOrderService.queryLotteryResult(voucherId);
     }
 }
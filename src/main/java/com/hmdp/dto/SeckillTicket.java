@@ -0,0 +1,34 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @Description: 秒杀排队凭证，未被放行的请求返回给前端，前端在 retryAfter 毫秒后重试<br/>
+ * @Version 1.0
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeckillTicket {
+    /**
+     * 优惠券id
+     **/
+    private Long voucherId;
+
+    /**
+     * 排队号，同一用户重试时保持不变
+     **/
+    private Long ticket;
+
+    /**
+     * 前面还有多少人
+     **/
+    private Long position;
+
+    /**
+     * 建议的重试间隔（毫秒）
+     **/
+    private Long retryAfter;
+}
@@ -1,6 +1,7 @@
 package com.hmdp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -37,6 +38,17 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * 库存分段数，大于1时库存拆分到多个redis key；redis 清空后预热按此恢复分段
+     */
+    private Integer stockSegments;
+
+    /**
+     * 优惠券类型，保存在优惠券表中，只在本地缓存中填充
+     */
+    @TableField(exist = false)
+    private Integer type;
+
     /**
      * 创建时间
      */
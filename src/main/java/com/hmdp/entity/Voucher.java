@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 库存分段数，大于1时秒杀库存拆分到多个redis key
+     */
+    @TableField(exist = false)
+    private Integer stockSegments;
+
     /**
      * 生效时间
      */
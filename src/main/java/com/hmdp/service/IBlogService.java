@@ -28,4 +28,8 @@ public interface IBlogService extends IService<Blog> {
     Blog getBlogById(Long id);
 
     List<Blog> getHotBlog(Integer current);
+
+    Blog queryBlogById(Long id);
+
+    List<Blog> queryHotBlogs(Integer current);
 }
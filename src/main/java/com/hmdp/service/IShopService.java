@@ -17,6 +17,8 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Shop queryShopById(Long id);
+
     @Transactional
     Result updateShopById(Shop shop);
 }
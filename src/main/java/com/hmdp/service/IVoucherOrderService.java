@@ -4,6 +4,9 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * <p>
@@ -19,6 +22,15 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucherOnlyOne(Long voucherId);
 
+    DeferredResult<Result> queryOrderStatus(Long orderId, long timeout);
+
+    Result enterLottery(Long voucherId);
+
+    Result queryLotteryResult(Long voucherId);
+
     @Transactional
     Result createVoucherOrder(Long voucherId);
+
+    @Transactional
+    void saveOrderBatch(List<VoucherOrder> voucherOrders);
 }
@@ -14,9 +14,12 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HmCacheable;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisUtil;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
@@ -46,11 +49,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     private RedisTemplate redisTemplate;
 
-    public BlogServiceImpl(IUserService userService, IFollowService followService, StringRedisTemplate stringRedisTemplate, RedisTemplate redisTemplate) {
+    private final RedisUtil redisUtil;
+
+    public BlogServiceImpl(IUserService userService, IFollowService followService, StringRedisTemplate stringRedisTemplate, RedisTemplate redisTemplate, RedisUtil redisUtil) {
         this.userService = userService;
         this.followService = followService;
         this.stringRedisTemplate = stringRedisTemplate;
         this.redisTemplate = redisTemplate;
+        this.redisUtil = redisUtil;
     }
 
     /**
@@ -174,11 +180,13 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             boolean updated = update().setSql("liked = liked - 1 ").eq("id", blogId).update();
             if (updated) {
                 stringStringZSetOperations.remove(redisKey, userId.toString());
+                redisUtil.evict("blog", blogId);
             }
         } else {
             boolean updated = update().setSql("liked = liked + 1 ").eq("id", blogId).update();
             if (updated) {
                 stringStringZSetOperations.add(redisKey, userId.toString(), System.currentTimeMillis());
+                redisUtil.evict("blog", blogId);
             }
         }
     }
@@ -220,24 +228,41 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Blog getBlogById(Long id) {
-        Blog blog = getById(id);
+        Blog blog = ((IBlogService) AopContext.currentProxy()).queryBlogById(id);
         setInfoForBlog(blog);
         return blog;
     }
 
     @Override
     public List<Blog> getHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
-        List<Blog> records = page.getRecords();
+        List<Blog> records = ((IBlogService) AopContext.currentProxy()).queryHotBlogs(current);
         // 查询用户
         records.forEach(this::setInfoForBlog);
         return records;
     }
 
+    /**
+     * 笔记本身（不含作者信息和当前用户是否点赞），点赞数变化时删除缓存
+     */
+    @Override
+    @HmCacheable(region = "blog", key = "#id", ttl = 30)
+    public Blog queryBlogById(Long id) {
+        return getById(id);
+    }
+
+    /**
+     * 热门笔记的一页（不含作者信息和当前用户是否点赞），点赞数允许有1分钟的延迟
+     */
+    @Override
+    @HmCacheable(region = "blog-hot", key = "#current", ttl = 1)
+    public List<Blog> queryHotBlogs(Integer current) {
+        Page<Blog> page = query()
+                .orderByDesc("liked")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+        return page.getRecords();
+    }
+
     /**
      * @Description: 给笔记设定用户信息和是否被当前用户点赞<br />
      * @Author: sanyeshu <br/>
@@ -249,7 +274,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private void setInfoForBlog(Blog blog) {
         // 设定笔记作者信息
         Long blogUserId = blog.getUserId();
-        User user = userService.getById(blogUserId);
+        UserDTO user = userService.queryUserById(blogUserId);
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
 
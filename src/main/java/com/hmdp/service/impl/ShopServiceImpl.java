@@ -5,10 +5,11 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.HmCacheable;
 import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.ShopBloomFilter;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,14 +25,18 @@ import org.springframework.transaction.annotation.Transactional;
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private RedisUtil redisUtil;
 
     @Autowired
-    private RedisUtil redisUtil;
+    private ShopBloomFilter shopBloomFilter;
 
     @Override
     public Result queryById(Long id) {
-        Shop shop = redisUtil.queryByIdWithPassThrough(id, Shop.class, queryId -> getById(queryId));
+        // 布隆过滤器判断一定不存在的id，不访问 redis 和数据库
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("商铺不存在");
+        }
+        Shop shop = ((IShopService) AopContext.currentProxy()).queryShopById(id);
         if (shop == null) {
             return Result.fail("商铺不存在");
         }
@@ -40,6 +45,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
     
+    /**
+     * 按id查询商铺，redis 缓存 + 本地缓存，返回的对象不能修改
+     */
+    @Override
+    @HmCacheable(region = "shop", key = "#id", ttl = 30, local = true)
+    public Shop queryShopById(Long id) {
+        return getById(id);
+    }
+
     @Override
     @Transactional
     public Result updateShopById(Shop shop) {
@@ -52,9 +66,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1.更新数据库
         updateById(shop);
 
-        // 2.删除redis中缓存
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        stringRedisTemplate.delete(key);
+        // 2.事务提交后删除redis中缓存，并通知各节点删除本地缓存
+        redisUtil.evict("shop", id);
 
         return Result.ok();
     }
@@ -4,13 +4,10 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
-import com.hmdp.utils.RedisConstants;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import com.hmdp.utils.HmCacheable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -23,22 +20,13 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
-    @Autowired
-    private RedisTemplate redisTemplate;
-
+    /**
+     * 首页每次都会查询，使用逻辑过期，过期后异步刷新
+     */
     @Override
+    @HmCacheable(region = "shop-type", key = "'list'", ttl = 30, strategy = HmCacheable.Strategy.LOGICAL_EXPIRE)
     public List<ShopType> queryTypeList() {
-        String redisKey = RedisConstants.CACHE_SHOP_KEY + "typeList";
-        Object o = redisTemplate.opsForValue().get(redisKey);
-        if (o != null) {
-            return (List<ShopType>) o;
-        }
-
-        List<ShopType> typeList = query().orderByAsc("sort").list();
-
-        redisTemplate.opsForValue().set(redisKey, typeList, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        return typeList;
+        return query().orderByAsc("sort").list();
     }
 
 }
@@ -11,6 +11,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HmCacheable;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -44,6 +45,19 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * @Description: 查询用户的公开信息（昵称、头像），用于用户主页和笔记作者，用户不存在时返回null<br />
+     * @param: Long id <br/>
+     * @Return: com.hmdp.dto.UserDTO <br/>
+     * @Throws:
+     */
+    @Override
+    @HmCacheable(region = "user", key = "#id", ttl = 30)
+    public UserDTO queryUserById(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1.校验手机号
@@ -10,24 +10,40 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.SeckillBuyerTracker;
+import com.hmdp.utils.SeckillEngineRouter;
+import com.hmdp.utils.SeckillLuaCoalescer;
+import com.hmdp.utils.SeckillOrderStatusTracker;
+import com.hmdp.utils.SeckillOutcome;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherCache;
+import com.hmdp.utils.StripedLock;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -37,21 +53,23 @@ import java.util.concurrent.TimeUnit;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     // 读取lua脚本
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
-    // 阻塞队列
-    private static final BlockingQueue<VoucherOrder> BLOCKINGQUEUE;
+    private static final DefaultRedisScript<Long> LOTTERY_ENTER_SCRIPT;
 
     static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("/lua/seckill.lua"));
-        UNLOCK_SCRIPT.setResultType(Long.class);
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("/lua/seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
 
-        BLOCKINGQUEUE = new ArrayBlockingQueue(1024 * 1024);
+        LOTTERY_ENTER_SCRIPT = new DefaultRedisScript<>();
+        LOTTERY_ENTER_SCRIPT.setLocation(new ClassPathResource("/lua/lottery_enter.lua"));
+        LOTTERY_ENTER_SCRIPT.setResultType(Long.class);
     }
 
 
@@ -61,39 +79,57 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     private RedisTemplate redisTemplate;
 
-    // 线程池
-    private ThreadPoolTaskExecutor taskExecutor;
+    private final StringRedisTemplate stringRedisTemplate;
 
-    // 在另一个线程中调用本类事务方法用
-    @Autowired
-    private VoucherOrderServiceImpl voucherOrderServiceImpl;
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    private final SeckillVoucherCache seckillVoucherCache;
+
+    private final SeckillStockSegments seckillStockSegments;
+
+    private final SeckillOrderStatusTracker orderStatusTracker;
+
+    private final SeckillLuaCoalescer luaCoalescer;
+
+    private final SeckillEngineRouter seckillEngineRouter;
+
+    private final SeckillStockLease seckillStockLease;
+
+    private final StripedLock userLock;
+
+    private final SeckillBuyerTracker buyerTracker;
+
+    // 等待本节点用户锁的最长时间（毫秒）
+    @Value("${hmdp.seckill.user-lock-timeout-ms:500}")
+    private long userLockTimeout;
 
     @Autowired
-    public VoucherOrderServiceImpl(ISeckillVoucherService seckillVoucherService, RedisLock redisLock, RedissonClient redissonClient, RedisTemplate redisTemplate, @Qualifier("taskExecutor") ThreadPoolTaskExecutor taskExecutor) {
+    public VoucherOrderServiceImpl(ISeckillVoucherService seckillVoucherService, RedisLock redisLock, RedissonClient redissonClient, RedisTemplate redisTemplate, StringRedisTemplate stringRedisTemplate, SeckillSoldOutRegistry soldOutRegistry, SeckillVoucherCache seckillVoucherCache, SeckillStockSegments seckillStockSegments, SeckillOrderStatusTracker orderStatusTracker, SeckillLuaCoalescer luaCoalescer, SeckillEngineRouter seckillEngineRouter, SeckillStockLease seckillStockLease, StripedLock userLock, SeckillBuyerTracker buyerTracker) {
         this.seckillVoucherService = seckillVoucherService;
         this.redisLock = redisLock;
         this.redisTemplate = redisTemplate;
-        this.taskExecutor = taskExecutor;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutRegistry = soldOutRegistry;
+        this.seckillVoucherCache = seckillVoucherCache;
+        this.seckillStockSegments = seckillStockSegments;
+        this.orderStatusTracker = orderStatusTracker;
+        this.luaCoalescer = luaCoalescer;
+        this.seckillEngineRouter = seckillEngineRouter;
+        this.seckillStockLease = seckillStockLease;
+        this.userLock = userLock;
+        this.buyerTracker = buyerTracker;
     }
 
     /**
-     * @Description: 当bean被创建时就开始执行任务，另开线程读取阻塞队列中的任务执行<br/>
-     * @Author: sanyeshu <br/>
-     * @Date: 2023/3/10 20:34 <br/>
-     * @param: <br/>
-     * @Return: void <br/>
-     * @Throws:
+     * 注册各秒杀实现，由 SeckillEngineRouter 按优惠券选择
      */
     @PostConstruct
-    public void doTask() {
-
-        taskExecutor.execute(() -> {
-            // TODO 引入MQ后替换
-            while (true) {
-                voucherOrderServiceImpl.createOrderForAsync();
-            }
-        });
-
+    public void registerSeckillEngines() {
+        seckillEngineRouter.register(SeckillEngineRouter.EASY, this::seckillVoucherEasy);
+        seckillEngineRouter.register(SeckillEngineRouter.ONLY_ONE, this::seckillVoucherOnlyOne);
+        seckillEngineRouter.register(SeckillEngineRouter.REDIS_LOCK, this::seckillVoucherWithRedisLock);
+        seckillEngineRouter.register(SeckillEngineRouter.ASYNC, this::seckillVoucherAsync);
+        seckillEngineRouter.register(SeckillEngineRouter.LEASE, this::seckillVoucherWithLease);
     }
 
     /**
@@ -106,12 +142,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
-
-        return seckillVoucherAsync(voucherId);
+        // 按优惠券选择秒杀引擎（默认 lua + 消息队列），通过代理调用进入，各实现中可以获取 AopContext.currentProxy()
+        return seckillEngineRouter.seckill(voucherId);
     }
 
     /**
-     * @Description: 异步实现秒杀<br />
+     * @Description: 异步实现秒杀，lua脚本中扣减库存并将订单写入 redis stream<br />
      * @Author: sanyeshu <br/>
      * @Date: 2023/3/10 20:33 <br/>
      * @param: Long voucherId <br/>
@@ -119,97 +155,133 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * @Throws:
      */
     public Result seckillVoucherAsync(Long voucherId) {
+        return seckillVoucherAsync(voucherId, false);
+    }
+
+    /**
+     * @Description: 异步秒杀，库存在节点本地租借的库存中扣减，redis 只判断一人一单和发送订单消息（分段库存的券仍按分段扣减）<br />
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.dto.Result <br/>
+     * @Throws:
+     */
+    public Result seckillVoucherWithLease(Long voucherId) {
+        return seckillVoucherAsync(voucherId, true);
+    }
+
+    private Result seckillVoucherAsync(Long voucherId, boolean leased) {
         // 用户id
         Long userId = UserHolder.getUser().getId();
-        // 1.查询优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-
-        if (voucher == null) {
-            return Result.fail("秒杀券不存在");
-        }
-        // 2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀尚未开始！");
+        // 0.本地已标记售罄，直接拒绝，不再访问数据库和redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return SeckillOutcome.SOLD_OUT.toResult();
         }
-        // 3.判断秒杀是否已经结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀已经结束！");
+        // 1.判断优惠券是否存在、是否在秒杀时间内
+        Result checkResult = checkSeckillVoucher(voucherId);
+        if (checkResult != null) {
+            return checkResult;
         }
+        int segments = seckillVoucherCache.get(voucherId).getStockSegments();
 
-        // 调用lua脚本，在redis中判断库存和一人一单，成功则扣减库存，返回0l
-        Long luaResult = (Long) redisTemplate.execute(
-                UNLOCK_SCRIPT,
-                Arrays.asList(RedisConstants.SECKILL_STOCK_KEY, RedisConstants.SECKILL_ORDER_KEY),
-                voucherId, userId
-        );
+        // 4.使用雪花算法创建订单id
+        long orderId = IdWorker.getId();
+
+        Long luaResult;
+        if (segments > 1) {
+            // 分段库存，所有分段的库存key都存在且都不足时才返回库存不足，此时才广播售罄
+            luaResult = seckillStockSegments.seckill(voucherId, userId, orderId, segments);
+            if (luaResult == 1l) {
+                soldOutRegistry.publishSoldOut(voucherId);
+            }
+        } else if (leased) {
+            // 本地租借的库存扣减，用完时再向 redis 租借
+            luaResult = seckillStockLease.seckill(voucherId, userId, orderId);
+        } else if (luaCoalescer.isEnabled()) {
+            // 与同一时间窗口内的其他请求合并为一次lua调用
+            luaResult = luaCoalescer.seckill(voucherId, userId, orderId);
+        } else {
+            // 调用lua脚本，在redis中判断库存和一人一单，成功则扣减库存并发送订单消息，返回0l
+            luaResult = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(RedisConstants.SECKILL_STOCK_KEY, RedisConstants.SECKILL_ORDER_KEY, RedisConstants.SECKILL_STREAM_KEY,
+                            RedisConstants.SECKILL_SOLD_OUT_CHANNEL, RedisConstants.SECKILL_ORDER_STATUS_KEY, RedisConstants.SECKILL_BUYER_BITMAP_KEY),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId),
+                    String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.SECKILL_ORDER_STATUS_TTL)),
+                    String.valueOf(buyerTracker.getShardBits())
+            );
+        }
 
         if (luaResult != 0l) {
             if (luaResult == 1l) {
-                return Result.fail("秒杀券库存不足");
+                // 没收到售罄广播（如本节点启动晚于售罄）时在本地补记
+                soldOutRegistry.markSoldOut(voucherId);
+                return SeckillOutcome.SOLD_OUT.toResult();
+            } else if (luaResult == 3l) {
+                log.warn("秒杀券 {} 的库存未预热", voucherId);
+                return Result.fail("秒杀券库存未就绪，请稍后再试");
             } else {
-                return Result.fail("您已购买过此券，不能再次购买");
+                return SeckillOutcome.DUPLICATE.toResult();
             }
         }
 
-        // 7.创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        // 7.1.使用雪花算法创建订单id
-        long orderId = IdWorker.getId();
-        voucherOrder.setId(orderId);
-        // 7.2.用户id
-        voucherOrder.setUserId(userId);
-        // 7.3.代金券id
-        voucherOrder.setVoucherId(voucherId);
-        // 插入阻塞队列
-        boolean offer = BLOCKINGQUEUE.offer(voucherOrder);
+        // 5.返回订单id
+        return Result.ok(orderId);
+    }
 
-        if (offer) {
-            // 7.返回订单id
-            return Result.ok(orderId);
-        } else {
-            return Result.fail("当前业务繁忙，请稍后再试");
-        }
+    /**
+     * @Description: 查询当前用户异步秒杀订单的状态（queued/persisted/failed），timeout 大于0时长轮询<br/>
+     * @param: Long orderId
+     * @param: long timeout 最长等待时间（毫秒）<br/>
+     * @Return: org.springframework.web.context.request.async.DeferredResult<com.hmdp.dto.Result> <br/>
+     * @Throws:
+     */
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, long timeout) {
+        Long userId = UserHolder.getUser().getId();
+        return orderStatusTracker.awaitStatus(orderId, userId, timeout, () -> getById(orderId));
     }
 
+    /**
+     * @Description: 批量保存消息队列中的订单：一条多行 INSERT，每张优惠券一条 stock = stock - N<br/>
+     * 消息可能被重复投递（提交后 ACK 前宕机），已存在的订单直接跳过<br/>
+     * @param: List<VoucherOrder> voucherOrders <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    @Override
     @Transactional
-    public void createOrderForAsync() {
-        VoucherOrder voucherOrder = null;
-        try {
-            voucherOrder = BLOCKINGQUEUE.take();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+    public void saveOrderBatch(List<VoucherOrder> voucherOrders) {
+        // 1.过滤已经保存过的订单
+        List<Long> ids = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existIds = query().select("id").in("id", ids).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> newOrders = voucherOrders.stream()
+                .filter(order -> !existIds.contains(order.getId()))
+                .collect(Collectors.toList());
+        if (newOrders.isEmpty()) {
+            return;
         }
-        // 存储订单
-        save(voucherOrder);
 
-        // 扣减库存，因为有redis保证，所以不用再次加锁
-        seckillVoucherService.update()
-                .setSql("stock= stock -1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).update();
+        // 2.多行插入订单
+        getBaseMapper().insertBatch(newOrders);
+
+        // 3.按优惠券合并扣减库存，因为有redis保证，所以不用再次加锁；按id顺序更新，避免多节点之间死锁
+        Map<Long, Long> countOfVoucher = newOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.counting()));
+        countOfVoucher.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId).update());
     }
 
     public Result seckillVoucherEasy(Long voucherId) {
-        // 1.查询优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        if (voucher == null) {
-            return Result.fail("秒杀券不存在");
+        // 1.判断优惠券是否存在、是否在秒杀时间内
+        Result checkResult = checkSeckillVoucher(voucherId);
+        if (checkResult != null) {
+            return checkResult;
         }
-        // 2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀尚未开始！");
-        }
-        // 3.判断秒杀是否已经结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀已经结束！");
-        }
-        // 4.判断库存是否充足
-        if (voucher.getStock() < 1) {
+        // 4.判断库存是否充足（本地售罄标记）
+        if (soldOutRegistry.isSoldOut(voucherId)) {
             // 库存不足
-            return Result.fail("库存不足！");
+            return SeckillOutcome.SOLD_OUT.toResult();
         }
         // 5.一人一单逻辑
         // 5.1.用户id
@@ -218,7 +290,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 5.2.判断是否存在
         if (count > 0) {
             // 用户已经购买过了
-            return Result.fail("用户已经购买过一次！");
+            return SeckillOutcome.DUPLICATE.toResult();
         }
 
         //6，扣减库存
@@ -227,7 +299,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .eq("voucher_id", voucherId).gt("stock", 0).update(); //where id = ? and stock > 0
         if (!success) {
             //扣减库存
-            return Result.fail("库存不足！");
+            soldOutRegistry.markSoldOut(voucherId);
+            return SeckillOutcome.SOLD_OUT.toResult();
         }
         //7.创建订单
         VoucherOrder voucherOrder = new VoucherOrder();
@@ -244,32 +317,24 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     public Result seckillVoucherWithRedisLock(Long voucherId) {
-        // 1.查询优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        if (voucher == null) {
-            return Result.fail("秒杀券不存在");
+        // 1.判断优惠券是否存在、是否在秒杀时间内
+        Result checkResult = checkSeckillVoucher(voucherId);
+        if (checkResult != null) {
+            return checkResult;
         }
-        // 2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀尚未开始！");
-        }
-        // 3.判断秒杀是否已经结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀已经结束！");
-        }
-        // 4.判断库存是否充足
-        if (voucher.getStock() < 1) {
+        // 4.判断库存是否充足（本地售罄标记）
+        if (soldOutRegistry.isSoldOut(voucherId)) {
             // 库存不足
-            return Result.fail("库存不足！");
+            return SeckillOutcome.SOLD_OUT.toResult();
         }
         // 5.一人一单逻辑
         // 5.1.用户id
         Long userId = UserHolder.getUser().getId();
-        boolean lock = redisLock.lock(userId.toString() + voucherId, 30L, TimeUnit.SECONDS);
+        // 加锁和释放必须使用同一个key；不等待，由看门狗续期到释放
+        String lockKey = "order:" + userId + ":" + voucherId;
+        boolean lock = redisLock.tryLock(lockKey, 0, TimeUnit.SECONDS);
         if (!lock) {
-            return Result.fail("本商品一人限购一件，请勿重复抢购");
+            return SeckillOutcome.IN_PROGRESS.toResult();
         }
 
         try {
@@ -279,7 +344,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             // 判断订单是否存在-扣减优惠券库存-创建订单
             return proxy.createVoucherOrder(voucherId);
         } finally {
-            redisLock.unLock(userId.toString());
+            redisLock.unLock(lockKey);
         }
     }
 
@@ -293,34 +358,30 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucherOnlyOne(Long voucherId) {
-        // 1.查询优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        if (voucher == null) {
-            return Result.fail("秒杀券不存在");
+        // 1.判断优惠券是否存在、是否在秒杀时间内
+        Result checkResult = checkSeckillVoucher(voucherId);
+        if (checkResult != null) {
+            return checkResult;
         }
-        // 2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀尚未开始！");
-        }
-        // 3.判断秒杀是否已经结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            // 尚未开始
-            return Result.fail("秒杀已经结束！");
-        }
-        // 4.判断库存是否充足
-        if (voucher.getStock() < 1) {
+        // 4.判断库存是否充足（本地售罄标记）
+        if (soldOutRegistry.isSoldOut(voucherId)) {
             // 库存不足
-            return Result.fail("库存不足！");
+            return SeckillOutcome.SOLD_OUT.toResult();
         }
         Long userId = UserHolder.getUser().getId();
 
         // spring 事务是用代理对象来实现的，但是在容器中调用本类的方法不是用代理对象，所以其调用方法的事务会失效。
-        synchronized (userId.toString().intern()) {
+        // 同一用户的请求在本节点串行执行；分段锁可能被其他用户占用，等待超时只提示稍后重试，重复购买由订单校验拦截
+        if (!userLock.tryLock(userId, userLockTimeout, TimeUnit.MILLISECONDS)) {
+            return SeckillOutcome.BUSY.toResult();
+        }
+        try {
             // 创建本类的代理对象，用代理对象去调用本类的方法（注意调用的方法要在接口中有）
             IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
             // 5.一人一单逻辑
             return proxy.createVoucherOrder(voucherId);
+        } finally {
+            userLock.unlock(userId);
         }
     }
 
@@ -341,7 +402,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 5.2.判断是否存在
         if (count > 0) {
             // 用户已经购买过了
-            return Result.fail("用户已经购买过一次！");
+            return SeckillOutcome.DUPLICATE.toResult();
         }
 
         // 6.扣减库存
@@ -351,7 +412,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
         if (!success) {
             // 扣减失败
-            return Result.fail("库存不足！");
+            soldOutRegistry.markSoldOut(voucherId);
+            return SeckillOutcome.SOLD_OUT.toResult();
         }
 
         // 7.创建订单
@@ -368,4 +430,92 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 7.返回订单id
         return Result.ok(orderId);
     }
+
+    /**
+     * @Description: 报名抽签券：只在 redis 中判断是否是待开奖的抽签券并加入报名集合，不扣库存、不创建订单<br/>
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.dto.Result <br/>
+     * @Throws:
+     */
+    @Override
+    public Result enterLottery(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherCache.get(voucherId);
+        if (voucher == null) {
+            return Result.fail("抽签券不存在");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("报名尚未开始！");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("报名已经结束！");
+        }
+        Long userId = UserHolder.getUser().getId();
+        Long result = stringRedisTemplate.execute(
+                LOTTERY_ENTER_SCRIPT,
+                Arrays.asList(RedisConstants.LOTTERY_PENDING_KEY, RedisConstants.LOTTERY_ENTRIES_KEY),
+                voucherId.toString(), userId.toString()
+        );
+        if (result == 2L) {
+            return Result.fail("抽签券不存在");
+        }
+        if (result == 1L) {
+            return Result.fail("您已报名，请勿重复报名");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * @Description: 查询当前用户的抽签结果：pending 未开奖，won 中签（返回订单id），lost 未中签；未报名返回失败<br/>
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.dto.Result <br/>
+     * @Throws:
+     */
+    @Override
+    public Result queryLotteryResult(Long voucherId) {
+        String userId = UserHolder.getUser().getId().toString();
+        Boolean entered = stringRedisTemplate.opsForSet().isMember(RedisConstants.LOTTERY_ENTRIES_KEY + voucherId, userId);
+        if (!Boolean.TRUE.equals(entered)) {
+            return Result.fail("您未报名该抽签券");
+        }
+        Map<String, Object> data = new HashMap<>(2);
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.LOTTERY_DRAWN_KEY + voucherId))) {
+            data.put("status", "pending");
+            return Result.ok(data);
+        }
+        Object orderId = stringRedisTemplate.opsForHash().get(RedisConstants.LOTTERY_WINNERS_KEY + voucherId, userId);
+        data.put("status", orderId == null ? "lost" : "won");
+        if (orderId != null) {
+            data.put("orderId", orderId);
+        }
+        return Result.ok(data);
+    }
+
+    /**
+     * @Description: 根据本地缓存的秒杀券元数据判断券是否存在、秒杀是否开始/结束，不访问数据库<br/>
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.dto.Result 校验不通过时返回失败结果，通过返回null <br/>
+     * @Throws:
+     */
+    private Result checkSeckillVoucher(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherCache.get(voucherId);
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 抽签券只能报名，不能秒杀
+        if (SeckillVoucherCache.isLottery(voucher)) {
+            return Result.fail("抽签券不能秒杀");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        // 判断秒杀是否开始
+        if (voucher.getBeginTime().isAfter(now)) {
+            // 尚未开始
+            return Result.fail("秒杀尚未开始！");
+        }
+        // 判断秒杀是否已经结束
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀已经结束！");
+        }
+        return null;
+    }
 }
@@ -7,12 +7,21 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.HmCacheable;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisUtil;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherCache;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.time.ZoneId;
 import java.util.List;
 
 /**
@@ -32,14 +41,41 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
+
+    @Resource
+    private RedisUtil redisUtil;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        List<Voucher> vouchers = ((IVoucherService) AopContext.currentProxy()).listVoucherOfShop(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 商铺的优惠券列表，库存等信息允许有1分钟的延迟，新增优惠券时删除缓存
+     */
+    @Override
+    @HmCacheable(region = "shop-voucher", key = "#shopId", ttl = 1)
+    public List<Voucher> listVoucherOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 事务提交后删除商铺的优惠券列表缓存
+        redisUtil.evict("shop-voucher", voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -51,8 +87,64 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setStock(voucher.getStock());
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
+        // 分段数和库存一起保存到数据库，redis 清空后预热按此恢复分段
+        Integer segments = voucher.getStockSegments();
+        seckillVoucher.setStockSegments(segments != null && segments > 1 ? segments : 1);
         seckillVoucherService.save(seckillVoucher);
-        // 保存库存到redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 事务提交后保存库存到redis中，指定了分段数时拆分到多个分段key；事务回滚时不会留下不存在的券的库存，
+        // 提交后写入失败时秒杀返回库存未预热，由预热接口补写
+        afterCommit(() -> {
+            if (segments != null && segments > 1) {
+                seckillStockSegments.allocate(voucher.getId(), voucher.getStock(), segments);
+            } else {
+                stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+            }
+        });
+        // 事务提交后通知各节点加载秒杀券元数据，删除商铺的优惠券列表缓存
+        seckillVoucherCache.publishChange(voucher.getId());
+        redisUtil.evict("shop-voucher", voucher.getShopId());
+    }
+
+    /**
+     * @Description: 新增抽签券：报名时间、中签名额保存在秒杀券表中（beginTime ~ endTime 为报名时间，stock 为中签名额），
+     * 报名截止后由开奖任务统一抽签并批量创建订单<br/>
+     * @param: Voucher voucher <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    @Override
+    @Transactional
+    public void addLotteryVoucher(Voucher voucher) {
+        // 保存优惠券
+        voucher.setType(SystemConstants.VOUCHER_TYPE_LOTTERY);
+        save(voucher);
+        // 保存报名时间和名额
+        SeckillVoucher seckillVoucher = new SeckillVoucher();
+        seckillVoucher.setVoucherId(voucher.getId());
+        seckillVoucher.setStock(voucher.getStock());
+        seckillVoucher.setBeginTime(voucher.getBeginTime());
+        seckillVoucher.setEndTime(voucher.getEndTime());
+        seckillVoucherService.save(seckillVoucher);
+        // 加入待开奖集合，报名截止时间作为 score
+        long endTime = voucher.getEndTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        stringRedisTemplate.opsForZSet().add(RedisConstants.LOTTERY_PENDING_KEY, voucher.getId().toString(), endTime);
+        seckillVoucherCache.publishChange(voucher.getId());
+        redisUtil.evict("shop-voucher", voucher.getShopId());
+    }
+
+    /**
+     * 在事务中调用时等事务提交后执行，否则立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
 }
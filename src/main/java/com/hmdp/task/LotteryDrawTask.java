@@ -0,0 +1,167 @@
+package com.hmdp.task;
+
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 抽签券开奖<br/>
+ * 报名截止的抽签券由 lua 脚本从待开奖 zset 原子地移入开奖中 zset，score 为租约到期时间（认领成功的节点负责开奖，多节点不会同时开奖），
+ * 从报名集合中随机抽取不超过名额的用户，先把中签结果（userId -> 订单id）写入 redis，再分批创建订单并扣减库存，最后写入开奖完成标记，
+ * 开奖成功后才从开奖中 zset 删除<br/>
+ * 开奖失败时租约立即到期，下次重试；节点宕机时租约过期后由其他节点重新认领。中签结果已存在时直接使用，订单按id去重，重试不会重复抽签或重复下单<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class LotteryDrawTask {
+
+    // 每批创建的订单数
+    private static final int BATCH_SIZE = 1000;
+
+    // 开奖租约时长（毫秒），超过后视为开奖的节点已宕机
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final DefaultRedisScript<Long> CLAIM_SCRIPT;
+
+    static {
+        CLAIM_SCRIPT = new DefaultRedisScript<>();
+        CLAIM_SCRIPT.setLocation(new ClassPathResource("/lua/lottery_claim.lua"));
+        CLAIM_SCRIPT.setResultType(Long.class);
+    }
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public LotteryDrawTask(ISeckillVoucherService seckillVoucherService, IVoucherOrderService voucherOrderService, StringRedisTemplate stringRedisTemplate) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public void drawDue() {
+        // 报名截止的抽签券，以及租约已过期（开奖失败或节点宕机）的抽签券
+        drawDue(RedisConstants.LOTTERY_PENDING_KEY);
+        drawDue(RedisConstants.LOTTERY_PROCESSING_KEY);
+    }
+
+    private void drawDue(String sourceKey) {
+        long now = System.currentTimeMillis();
+        Set<String> due = stringRedisTemplate.opsForZSet().rangeByScore(sourceKey, 0, now);
+        if (due == null) {
+            return;
+        }
+        for (String id : due) {
+            Long claimed = stringRedisTemplate.execute(CLAIM_SCRIPT,
+                    Arrays.asList(sourceKey, RedisConstants.LOTTERY_PROCESSING_KEY),
+                    id, String.valueOf(now), String.valueOf(System.currentTimeMillis() + LEASE_MILLIS));
+            if (claimed == null || claimed == 0L) {
+                // 已被其他节点认领
+                continue;
+            }
+            try {
+                draw(Long.valueOf(id));
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.LOTTERY_PROCESSING_KEY, id);
+            } catch (Exception e) {
+                log.error("抽签券 {} 开奖失败，稍后重试", id, e);
+                // 租约立即到期，下次重新认领
+                stringRedisTemplate.opsForZSet().add(RedisConstants.LOTTERY_PROCESSING_KEY, id, now);
+            }
+        }
+    }
+
+    /**
+     * @Description: 开奖<br />
+     * @param: Long voucherId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void draw(Long voucherId) {
+        long begin = System.currentTimeMillis();
+        String entriesKey = RedisConstants.LOTTERY_ENTRIES_KEY + voucherId;
+        String winnersKey = RedisConstants.LOTTERY_WINNERS_KEY + voucherId;
+
+        // 1.抽签：SRANDMEMBER 正数返回不重复的成员，报名人数不足名额时全部中签
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(winnersKey))) {
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            int quota = voucher == null ? 0 : Math.max(0, voucher.getStock());
+            List<String> winners = quota > 0
+                    ? new ArrayList<>(stringRedisTemplate.opsForSet().distinctRandomMembers(entriesKey, quota))
+                    : new ArrayList<>();
+            // 先写入临时key，全部写完后 RENAME，避免中途失败留下不完整的中签结果
+            String tempKey = winnersKey + ":tmp";
+            stringRedisTemplate.delete(tempKey);
+            for (int from = 0; from < winners.size(); from += BATCH_SIZE) {
+                List<String> batch = winners.subList(from, Math.min(from + BATCH_SIZE, winners.size()));
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                    for (String userId : batch) {
+                        stringConnection.hSet(tempKey, userId, String.valueOf(IdWorker.getId()));
+                    }
+                    return null;
+                });
+            }
+            if (!winners.isEmpty()) {
+                stringRedisTemplate.rename(tempKey, winnersKey);
+            }
+        }
+
+        // 2.按中签结果分批创建订单，已存在的订单会被跳过
+        int count = 0;
+        List<VoucherOrder> orders = new ArrayList<>(BATCH_SIZE);
+        try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash()
+                .scan(winnersKey, ScanOptions.scanOptions().count(BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                Map.Entry<Object, Object> winner = cursor.next();
+                VoucherOrder order = new VoucherOrder();
+                order.setId(Long.valueOf(winner.getValue().toString()));
+                order.setUserId(Long.valueOf(winner.getKey().toString()));
+                order.setVoucherId(voucherId);
+                orders.add(order);
+                if (orders.size() == BATCH_SIZE) {
+                    voucherOrderService.saveOrderBatch(orders);
+                    count += orders.size();
+                    orders = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!orders.isEmpty()) {
+            voucherOrderService.saveOrderBatch(orders);
+            count += orders.size();
+        }
+
+        // 3.开奖完成，发布结果，报名和中签记录保留一段时间供用户查询
+        stringRedisTemplate.opsForValue().set(RedisConstants.LOTTERY_DRAWN_KEY + voucherId, String.valueOf(count),
+                RedisConstants.LOTTERY_RESULT_TTL, TimeUnit.DAYS);
+        stringRedisTemplate.expire(entriesKey, RedisConstants.LOTTERY_RESULT_TTL, TimeUnit.DAYS);
+        stringRedisTemplate.expire(winnersKey, RedisConstants.LOTTERY_RESULT_TTL, TimeUnit.DAYS);
+        log.info("抽签券 {} 开奖完成，中签 {} 人，耗时 {} ms", voucherId, count, System.currentTimeMillis() - begin);
+    }
+}
@@ -0,0 +1,366 @@
+package com.hmdp.task;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.Histogram;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillOrderStatusTracker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 秒杀订单批量写入器（group commit）<br/>
+ * 以消费者组的方式读取 redis stream 中的订单消息，攒够 batchSize 条或等待超过 lingerMs 后，
+ * 在一个事务中多行插入订单并按优惠券合并扣减库存，提交后再统一 ACK<br/>
+ * 节点宕机时未确认的消息由其他节点（或重启后的本节点）认领；消息认领完、长时间空闲的消费者从消费者组中删除，
+ * 消费者列表不会随重启次数增长<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillOrderBatchWriter implements SmartLifecycle {
+
+    // 当前节点在消费者组中的名称，每个jvm唯一
+    private static final String CONSUMER_NAME = "c-" + UUID.randomUUID().toString(true);
+
+    // 没有消息时 XREADGROUP 的阻塞时间，同时也是 stop 的最长等待时间
+    private static final Duration IDLE_BLOCK = Duration.ofSeconds(2);
+
+    // 统计日志的输出间隔
+    private static final long STATS_LOG_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillOrderStatusTracker orderStatusTracker;
+
+    // 每批最多写入的订单数
+    @Value("${hmdp.seckill.order.batch-size:200}")
+    private int batchSize;
+
+    // 收到第一条消息后最多再等待的时间（毫秒）
+    @Value("${hmdp.seckill.order.linger-ms:20}")
+    private long lingerMs;
+
+    // 批次大小分布
+    private final Histogram batchSizeStats = new Histogram();
+
+    // 事务提交耗时分布（微秒）
+    private final Histogram commitLatencyStats = new Histogram();
+
+    private volatile boolean running = false;
+
+    private Thread worker;
+
+    // 上次认领失联消息的时间
+    private long lastClaimTime = 0;
+
+    // 上次输出统计日志的时间
+    private long lastStatsLogTime = System.currentTimeMillis();
+
+    public SeckillOrderBatchWriter(IVoucherOrderService voucherOrderService, StringRedisTemplate stringRedisTemplate, SeckillOrderStatusTracker orderStatusTracker) {
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.orderStatusTracker = orderStatusTracker;
+    }
+
+    @Override
+    public void start() {
+        createStreamGroup();
+        running = true;
+        worker = new Thread(this::run, "seckill-order-writer");
+        worker.start();
+        log.info("秒杀订单写入器已启动，consumer={}, batchSize={}, lingerMs={}", CONSUMER_NAME, batchSize, lingerMs);
+    }
+
+    /**
+     * @Description: 停止读取新消息，等待当前批次提交完毕。已读取未提交的消息留在 pending-list 中，由其他节点认领<br />
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    @Override
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            try {
+                worker.join(IDLE_BLOCK.toMillis() * 3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        logStats();
+        log.info("秒杀订单写入器已停止");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                // 1.认领失联消费者（包括本节点上一次运行）长时间未确认的消息
+                claimIdleOrders();
+                // 2.读取新消息，攒批
+                List<MapRecord<String, Object, Object>> records = readBatch();
+                // 3.批量写入并 ACK
+                writeBatch(records);
+                // 4.定期输出统计
+                if (System.currentTimeMillis() - lastStatsLogTime > STATS_LOG_INTERVAL) {
+                    logStats();
+                }
+            } catch (Exception e) {
+                log.error("处理订单消息异常", e);
+                // 避免 redis 或数据库不可用时空转
+                ThreadUtil.sleep(1000);
+            }
+        }
+    }
+
+    /**
+     * @Description: 读取一批消息：没有消息时阻塞等待；收到第一条消息后继续读取，直到攒够 batchSize 条或超过 lingerMs<br />
+     * @param: <br/>
+     * @Return: java.util.List<org.springframework.data.redis.connection.stream.MapRecord<java.lang.String,java.lang.Object,java.lang.Object>> <br/>
+     * @Throws:
+     */
+    private List<MapRecord<String, Object, Object>> readBatch() {
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>();
+        long deadline = 0;
+        while (running && batch.size() < batchSize) {
+            Duration block;
+            if (batch.isEmpty()) {
+                block = IDLE_BLOCK;
+            } else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                block = Duration.ofMillis(remaining);
+            }
+            // XREADGROUP GROUP g1 c1 COUNT n BLOCK ms STREAMS stream.orders >
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(RedisConstants.SECKILL_STREAM_GROUP, CONSUMER_NAME),
+                    StreamReadOptions.empty().count(batchSize - batch.size()).block(block),
+                    StreamOffset.create(RedisConstants.SECKILL_STREAM_KEY, ReadOffset.lastConsumed())
+            );
+            if (records == null || records.isEmpty()) {
+                if (batch.isEmpty()) {
+                    // 空闲，回到主循环（检查是否需要停止、认领消息）
+                    return batch;
+                }
+                break;
+            }
+            if (batch.isEmpty()) {
+                deadline = System.currentTimeMillis() + lingerMs;
+            }
+            batch.addAll(records);
+        }
+        return batch;
+    }
+
+    /**
+     * @Description: 在一个事务中写入整批订单，提交后统一 ACK；整批失败时逐条重试，隔离出错的消息<br />
+     * 逐条仍失败的消息不 ACK，留在 pending-list 中等待认领重试<br />
+     * @param: List<MapRecord<String, Object, Object>> records <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    private void writeBatch(List<MapRecord<String, Object, Object>> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+        }
+
+        try {
+            commit(voucherOrders);
+            acknowledge(records);
+            orderStatusTracker.markPersisted(voucherOrders);
+            return;
+        } catch (Exception e) {
+            log.warn("批量写入订单失败，逐条重试，size={}", records.size(), e);
+        }
+
+        for (int i = 0; i < records.size(); i++) {
+            try {
+                commit(Collections.singletonList(voucherOrders.get(i)));
+                acknowledge(Collections.singletonList(records.get(i)));
+                orderStatusTracker.markPersisted(Collections.singletonList(voucherOrders.get(i)));
+            } catch (Exception e) {
+                log.error("写入订单失败，等待重试：{}", voucherOrders.get(i), e);
+            }
+        }
+    }
+
+    private void commit(List<VoucherOrder> voucherOrders) {
+        long begin = System.nanoTime();
+        voucherOrderService.saveOrderBatch(voucherOrders);
+        commitLatencyStats.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        batchSizeStats.record(voucherOrders.size());
+    }
+
+    private void acknowledge(List<MapRecord<String, Object, Object>> records) {
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        // XACK stream.orders g1 id...
+        stringRedisTemplate.opsForStream().acknowledge(RedisConstants.SECKILL_STREAM_KEY, RedisConstants.SECKILL_STREAM_GROUP, ids);
+    }
+
+    /**
+     * @Description: 创建消费者组，消息队列不存在时一并创建（MKSTREAM）<br/>
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    private void createStreamGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.xGroupCreate(
+                    RedisConstants.SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                    RedisConstants.SECKILL_STREAM_GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            // BUSYGROUP 消费者组已存在
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * @Description: 认领超过 SECKILL_STREAM_CLAIM_IDLE 未确认的消息（XCLAIM 会增加投递次数）并立即写入<br/>
+     * 超过最大投递次数的消息视为无法处理，记录日志后确认，避免一直阻塞；之后删除失联的消费者<br/>
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    private void claimIdleOrders() {
+        long now = System.currentTimeMillis();
+        if (now - lastClaimTime < RedisConstants.SECKILL_STREAM_CLAIM_IDLE / 2) {
+            return;
+        }
+        lastClaimTime = now;
+        try {
+            claimPendingOrders();
+        } finally {
+            removeIdleConsumers();
+        }
+    }
+
+    private void claimPendingOrders() {
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(
+                RedisConstants.SECKILL_STREAM_KEY, RedisConstants.SECKILL_STREAM_GROUP, Range.unbounded(), (long) batchSize);
+        List<RecordId> claimIds = new ArrayList<>();
+        for (PendingMessage pendingMessage : pendingMessages) {
+            if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < RedisConstants.SECKILL_STREAM_CLAIM_IDLE) {
+                continue;
+            }
+            if (pendingMessage.getTotalDeliveryCount() >= RedisConstants.SECKILL_STREAM_MAX_DELIVERY) {
+                giveUp(pendingMessage);
+                continue;
+            }
+            claimIds.add(pendingMessage.getId());
+        }
+        if (claimIds.isEmpty()) {
+            return;
+        }
+        // XCLAIM stream.orders g1 c1 min-idle-time id...
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection -> connection.xClaim(
+                RedisConstants.SECKILL_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                RedisConstants.SECKILL_STREAM_GROUP, CONSUMER_NAME,
+                RedisStreamCommands.XClaimOptions.minIdleMs(RedisConstants.SECKILL_STREAM_CLAIM_IDLE)
+                        .ids(claimIds.toArray(new RecordId[0]))));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> records = new ArrayList<>(claimed.size());
+        for (ByteRecord byteRecord : claimed) {
+            records.add(byteRecord.deserialize(RedisSerializer.string(), RedisSerializer.string(), RedisSerializer.string()));
+        }
+        log.info("认领未确认的订单消息 {} 条", records.size());
+        writeBatch(records);
+    }
+
+    /**
+     * @Description: 删除空闲超过 SECKILL_STREAM_CONSUMER_IDLE 且没有未确认消息的消费者（已宕机或已重启的节点）<br/>
+     * 有未确认消息的消费者等消息被认领后再删除，XGROUP DELCONSUMER 不会丢失消息<br/>
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    private void removeIdleConsumers() {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(
+                RedisConstants.SECKILL_STREAM_KEY, RedisConstants.SECKILL_STREAM_GROUP);
+        if (consumers == null) {
+            return;
+        }
+        consumers.forEach(consumer -> {
+            if (CONSUMER_NAME.equals(consumer.consumerName())
+                    || consumer.pendingCount() > 0
+                    || consumer.idleTimeMs() < RedisConstants.SECKILL_STREAM_CONSUMER_IDLE) {
+                return;
+            }
+            // XGROUP DELCONSUMER stream.orders g1 c1
+            stringRedisTemplate.opsForStream().deleteConsumer(RedisConstants.SECKILL_STREAM_KEY,
+                    Consumer.from(RedisConstants.SECKILL_STREAM_GROUP, consumer.consumerName()));
+            log.info("删除失联的消费者 {}，空闲 {} ms", consumer.consumerName(), consumer.idleTimeMs());
+        });
+    }
+
+    /**
+     * @Description: 放弃处理多次失败的消息：记录订单状态为失败后确认<br/>
+     * @param: PendingMessage pendingMessage <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    private void giveUp(PendingMessage pendingMessage) {
+        log.error("订单消息多次处理失败，放弃处理：{}", pendingMessage);
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+                RedisConstants.SECKILL_STREAM_KEY, Range.closed(pendingMessage.getIdAsString(), pendingMessage.getIdAsString()));
+        if (records != null && !records.isEmpty()) {
+            Object orderId = records.get(0).getValue().get("id");
+            if (orderId != null) {
+                orderStatusTracker.markFailed(Long.valueOf(orderId.toString()));
+            }
+        }
+        stringRedisTemplate.opsForStream().acknowledge(RedisConstants.SECKILL_STREAM_KEY, RedisConstants.SECKILL_STREAM_GROUP, pendingMessage.getId());
+    }
+
+    private void logStats() {
+        lastStatsLogTime = System.currentTimeMillis();
+        if (batchSizeStats.getCount() == 0) {
+            return;
+        }
+        log.info("秒杀订单写入统计 batchSize={}, commitLatencyMicros={}", batchSizeStats.snapshot(), commitLatencyStats.snapshot());
+    }
+
+    /**
+     * @Description: 批次大小与提交耗时（微秒）统计<br />
+     * @param: <br/>
+     * @Return: java.util.Map<java.lang.String, java.lang.Object> <br/>
+     * @Throws:
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batchSize", batchSizeStats.snapshot());
+        stats.put("commitLatencyMicros", commitLatencyStats.snapshot());
+        return stats;
+    }
+}
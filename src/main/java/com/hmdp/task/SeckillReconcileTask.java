@@ -0,0 +1,418 @@
+package com.hmdp.task;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.SeckillBuyerTracker;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SeckillVoucherCache;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * @Description: 秒杀库存、购买名额对账与补偿<br/>
+ * 逐张券对比 redis（库存、一人一单集合/位图）与数据库（tb_seckill_voucher 库存、tb_voucher_order 订单）：<br/>
+ * 1.有订单但 redis 中没有名额：补写名额，避免重复购买<br/>
+ * 2.redis 中有名额但没有订单（lua 扣减后消息写入失败、消息多次处理失败被放弃等）：超过宽限期仍没有订单时释放名额并归还库存；
+ * 宽限期内视为尚未落库的订单<br/>
+ * 3.库存偏差 = 数据库库存 - redis 库存 - 节点已租借未售出的库存 - 尚未落库的订单数，
+ * 连续两次对账偏差相同、没有尚未落库的订单且没有节点持有租借的库存时修正 redis 库存<br/>
+ * 数据库按主键分页读取，redis 集合用 SSCAN 分批读取，不整体加载；位图无法遍历，只补写名额并用 BITCOUNT 计算尚未落库的订单数<br/>
+ * 多节点时通过 redis 锁只有一个节点执行，结果记录在最近一次对账报告中<br/>
+ * 定时对账在单独的线程中执行，耗时较长时不占用定时任务线程；上一次还没结束时跳过本次<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillReconcileTask {
+
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    private static final DefaultRedisScript<Long> STOCK_SCRIPT;
+
+    static {
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("/lua/reconcile_release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+
+        STOCK_SCRIPT = new DefaultRedisScript<>();
+        STOCK_SCRIPT.setLocation(new ClassPathResource("/lua/reconcile_stock.lua"));
+        STOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final String LOCK_KEY = "seckill:reconcile";
+
+    // 每页读取的行数，同时也是 SSCAN 每批的数量
+    private static final int PAGE_SIZE = 1000;
+
+    // 结束超过该时间（小时）的券不再对账
+    private static final long ENDED_HOURS = 24;
+
+    // 名额没有订单超过该时间（毫秒）才释放，应大于订单消息的最长重试时间
+    @Value("${hmdp.seckill.reconcile.grace-ms:600000}")
+    private long graceMillis;
+
+    // 是否修复，false 时只报告
+    @Value("${hmdp.seckill.reconcile.repair:true}")
+    private boolean repair;
+
+    // 优惠券id -> 没有订单的名额（userId -> 第一次发现的时间）
+    private final Map<Long, Map<Long, Long>> orphanBuyers = new ConcurrentHashMap<>();
+
+    // 优惠券id -> 上次对账的库存偏差
+    private final Map<Long, Long> lastStockDrift = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "seckill-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 定时对账是否正在执行
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillVoucherCache seckillVoucherCache;
+
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    private final SeckillBuyerTracker buyerTracker;
+
+    private final RedisLock redisLock;
+
+    public SeckillReconcileTask(ISeckillVoucherService seckillVoucherService, IVoucherOrderService voucherOrderService, StringRedisTemplate stringRedisTemplate, SeckillVoucherCache seckillVoucherCache, SeckillSoldOutRegistry soldOutRegistry, SeckillBuyerTracker buyerTracker, RedisLock redisLock) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherCache = seckillVoucherCache;
+        this.soldOutRegistry = soldOutRegistry;
+        this.buyerTracker = buyerTracker;
+        this.redisLock = redisLock;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelayString = "${hmdp.seckill.reconcile.interval-ms:300000}")
+    public void scheduledReconcile() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                reconcile();
+            } catch (Exception e) {
+                log.error("秒杀对账失败", e);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    /**
+     * @Description: 对账所有未结束（或结束不足一天）的秒杀券，其他节点正在对账时直接返回null<br />
+     * @param: <br/>
+     * @Return: java.util.Map<java.lang.String,java.lang.Object> 对账报告 <br/>
+     * @Throws:
+     */
+    public Map<String, Object> reconcile() {
+        if (!redisLock.lock(LOCK_KEY, 30L, TimeUnit.MINUTES)) {
+            return null;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            int checked = 0;
+            int notWarmed = 0;
+            List<Map<String, Object>> drifts = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            long lastVoucherId = 0;
+            while (true) {
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .select("voucher_id")
+                        .gt("voucher_id", lastVoucherId)
+                        .gt("end_time", LocalDateTime.now().minusHours(ENDED_HOURS))
+                        .notInSql("voucher_id", "select id from tb_voucher where type = " + SystemConstants.VOUCHER_TYPE_LOTTERY)
+                        .orderByAsc("voucher_id")
+                        .last("limit " + PAGE_SIZE)
+                        .list();
+                if (vouchers.isEmpty()) {
+                    break;
+                }
+                for (SeckillVoucher voucher : vouchers) {
+                    Long voucherId = voucher.getVoucherId();
+                    seen.add(voucherId);
+                    Map<String, Object> drift = reconcile(voucherId);
+                    if (drift == null) {
+                        notWarmed++;
+                        continue;
+                    }
+                    checked++;
+                    if (!drift.isEmpty()) {
+                        drifts.add(drift);
+                    }
+                }
+                lastVoucherId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+            // 不再对账的券清除记录
+            orphanBuyers.keySet().retainAll(seen);
+            lastStockDrift.keySet().retainAll(seen);
+
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("time", LocalDateTime.now());
+            report.put("costMs", System.currentTimeMillis() - begin);
+            report.put("checked", checked);
+            report.put("notWarmed", notWarmed);
+            report.put("repair", repair);
+            report.put("drifts", drifts);
+            lastReport = report;
+            if (drifts.isEmpty()) {
+                log.info("秒杀对账完成，{} 张券无偏差，耗时 {} ms", checked, report.get("costMs"));
+            } else {
+                log.warn("秒杀对账完成，{} 张券中 {} 张有偏差，耗时 {} ms：{}", checked, drifts.size(), report.get("costMs"), drifts);
+            }
+            return report;
+        } finally {
+            redisLock.unLock(LOCK_KEY);
+        }
+    }
+
+    public Map<String, Object> getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * @Description: 对账一张券<br />
+     * @param: Long voucherId <br/>
+     * @Return: java.util.Map<java.lang.String,java.lang.Object> 偏差，没有偏差时为空，库存未预热时返回null <br/>
+     * @Throws:
+     */
+    private Map<String, Object> reconcile(Long voucherId) {
+        SeckillVoucher cached = seckillVoucherCache.get(voucherId);
+        int segments = cached == null || cached.getStockSegments() == null ? 1 : cached.getStockSegments();
+        List<String> stockKeys = new ArrayList<>(segments);
+        List<String> orderKeys = new ArrayList<>(segments);
+        if (segments > 1) {
+            for (int i = 0; i < segments; i++) {
+                stockKeys.add(SeckillStockSegments.stockKey(voucherId, i));
+                orderKeys.add(SeckillStockSegments.orderKey(voucherId, i));
+            }
+        } else {
+            stockKeys.add(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+            orderKeys.add(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+        }
+        boolean bitmap = segments <= 1 && buyerTracker.getShardBits() > 0;
+
+        // 1.订单 -> 名额：补写缺失的名额
+        long[] orderStats = restoreBuyers(voucherId, segments);
+        long dbOrders = orderStats[0];
+        long restored = orderStats[1];
+
+        // 2.名额 -> 订单：找出没有订单的名额，超过宽限期的释放并归还库存
+        long orphans = 0;
+        long released = 0;
+        if (bitmap) {
+            orphans = Math.max(0, buyerTracker.countBitmapBuyers(voucherId) - dbOrders);
+        } else {
+            Map<Long, Long> candidates = orphanBuyers.computeIfAbsent(voucherId, id -> new HashMap<>());
+            Set<Long> found = new HashSet<>();
+            for (int i = 0; i < orderKeys.size(); i++) {
+                long[] result = releaseOrphans(voucherId, orderKeys.get(i), stockKeys.get(i), candidates, found);
+                orphans += result[0];
+                released += result[1];
+            }
+            // 已有订单或已释放的名额不再跟踪
+            candidates.keySet().retainAll(found);
+            if (candidates.isEmpty()) {
+                orphanBuyers.remove(voucherId);
+            }
+        }
+
+        // 3.库存：读取放在最后，中途落库的订单只会造成一次性的偏差
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        if (values == null || values.contains(null)) {
+            return null;
+        }
+        long redisStock = values.stream().mapToLong(Long::parseLong).sum();
+        // 租借的库存只用于未分段的券
+        String leasedValue = segments > 1 ? null : stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_LEASED_KEY + voucherId);
+        long leased = leasedValue == null ? 0 : Long.parseLong(leasedValue);
+        SeckillVoucher voucher = seckillVoucherService.query().select("stock").eq("voucher_id", voucherId).one();
+        if (voucher == null) {
+            return null;
+        }
+        long pending = orphans - released;
+        long stockDrift = voucher.getStock() - redisStock - leased - pending;
+        Long previousDrift = stockDrift == 0 ? lastStockDrift.remove(voucherId) : lastStockDrift.put(voucherId, stockDrift);
+        long stockRepaired = 0;
+        if (repair && stockDrift != 0 && pending == 0 && leased == 0 && Long.valueOf(stockDrift).equals(previousDrift)) {
+            stockRepaired = stringRedisTemplate.execute(STOCK_SCRIPT, stockKeys, String.valueOf(stockDrift));
+            lastStockDrift.remove(voucherId);
+            log.warn("秒杀券 {} redis 库存连续两次偏差 {}，已修正 {}", voucherId, stockDrift, stockRepaired);
+        }
+        if (released > 0 || stockRepaired > 0) {
+            soldOutRegistry.publishRestock(voucherId);
+        }
+
+        if (restored == 0 && pending == 0 && released == 0 && stockDrift == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> drift = new LinkedHashMap<>();
+        drift.put("voucherId", voucherId);
+        drift.put("dbStock", voucher.getStock());
+        drift.put("redisStock", redisStock);
+        drift.put("leasedStock", leased);
+        drift.put("dbOrders", dbOrders);
+        drift.put("restoredBuyers", restored);
+        drift.put("pendingOrders", pending);
+        drift.put("releasedBuyers", released);
+        drift.put("stockDrift", stockDrift);
+        drift.put("stockRepaired", stockRepaired);
+        return drift;
+    }
+
+    /**
+     * 按订单主键分页读取该券的订单，补写 redis 中缺失的名额，返回 [订单数, 补写数]
+     */
+    private long[] restoreBuyers(Long voucherId, int segments) {
+        long count = 0;
+        long restored = 0;
+        long lastOrderId = Long.MIN_VALUE;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderService.query()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("id", lastOrderId)
+                    .orderByAsc("id")
+                    .last("limit " + PAGE_SIZE)
+                    .list();
+            if (orders.isEmpty()) {
+                break;
+            }
+            count += orders.size();
+            List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (VoucherOrder order : orders) {
+                    if (segments > 1) {
+                        int segment = SeckillStockSegments.segmentOf(order.getUserId(), segments);
+                        stringConnection.sIsMember(SeckillStockSegments.orderKey(voucherId, segment), order.getUserId().toString());
+                    } else {
+                        buyerTracker.contains(stringConnection, voucherId, order.getUserId());
+                    }
+                }
+                return null;
+            });
+            List<Long> missing = new ArrayList<>();
+            for (int i = 0; i < orders.size(); i++) {
+                if (!Boolean.TRUE.equals(exists.get(i))) {
+                    missing.add(orders.get(i).getUserId());
+                }
+            }
+            if (!missing.isEmpty()) {
+                restored += missing.size();
+                if (repair) {
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                        for (Long userId : missing) {
+                            if (segments > 1) {
+                                int segment = SeckillStockSegments.segmentOf(userId, segments);
+                                stringConnection.sAdd(SeckillStockSegments.orderKey(voucherId, segment), userId.toString());
+                            } else {
+                                buyerTracker.add(stringConnection, voucherId, userId);
+                            }
+                        }
+                        return null;
+                    });
+                }
+            }
+            lastOrderId = orders.get(orders.size() - 1).getId();
+        }
+        return new long[]{count, restored};
+    }
+
+    /**
+     * SSCAN 分批读取名额集合，查询没有订单的名额，超过宽限期的释放，返回 [没有订单的名额数, 释放数]
+     */
+    private long[] releaseOrphans(Long voucherId, String orderKey, String stockKey, Map<Long, Long> candidates, Set<Long> found) {
+        long now = System.currentTimeMillis();
+        long orphans = 0;
+        long released = 0;
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(orderKey, ScanOptions.scanOptions().count(PAGE_SIZE).build())) {
+            Set<Long> batch = new HashSet<>(PAGE_SIZE);
+            while (true) {
+                boolean hasNext = cursor.hasNext();
+                if (hasNext) {
+                    batch.add(Long.valueOf(cursor.next()));
+                }
+                if (batch.size() < PAGE_SIZE && hasNext) {
+                    continue;
+                }
+                if (!batch.isEmpty()) {
+                    Set<Long> ordered = voucherOrderService.query()
+                            .select("user_id")
+                            .eq("voucher_id", voucherId)
+                            .in("user_id", batch)
+                            .list()
+                            .stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+                    batch.removeAll(ordered);
+                    for (Long userId : batch) {
+                        // SSCAN 可能重复返回同一个成员
+                        if (!found.add(userId)) {
+                            continue;
+                        }
+                        orphans++;
+                        long firstSeen = candidates.computeIfAbsent(userId, id -> now);
+                        if (repair && now - firstSeen >= graceMillis) {
+                            Long result = stringRedisTemplate.execute(RELEASE_SCRIPT, Arrays.asList(orderKey, stockKey), userId.toString());
+                            if (result != null && result == 1L) {
+                                released++;
+                                log.warn("秒杀券 {} 用户 {} 的名额超过 {} ms 没有订单，已释放并归还库存", voucherId, userId, graceMillis);
+                            }
+                            found.remove(userId);
+                        }
+                    }
+                    batch.clear();
+                }
+                if (!hasNext) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return new long[]{orphans, released};
+    }
+}
@@ -0,0 +1,216 @@
+package com.hmdp.task;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillBuyerTracker;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * @Description: 秒杀预热<br/>
+ * 把未结束的秒杀券库存和已购买用户集合加载到 redis 中，用于 redis 清空、主从切换后恢复，以及补齐旧数据<br/>
+ * 库存只在 redis 中不存在时才写入（redis 中的库存包含尚未落库的订单，比数据库更准确），购买用户集合直接补齐；
+ * 库存分段数以数据库为准，同时恢复 redis 中的分段数<br/>
+ * 秒杀券和订单都按主键分页流式读取，每页用 pipeline 一次写入<br/>
+ * 启动时在 web 服务器开始接收请求之前执行，也可以通过管理接口手动执行<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillWarmUpTask implements SmartLifecycle {
+
+    // 每页读取的行数
+    private static final int PAGE_SIZE = 1000;
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final IVoucherOrderService voucherOrderService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    private final SeckillBuyerTracker buyerTracker;
+
+    private volatile boolean running = false;
+
+    public SeckillWarmUpTask(ISeckillVoucherService seckillVoucherService, IVoucherOrderService voucherOrderService, StringRedisTemplate stringRedisTemplate, SeckillSoldOutRegistry soldOutRegistry, SeckillBuyerTracker buyerTracker) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutRegistry = soldOutRegistry;
+        this.buyerTracker = buyerTracker;
+    }
+
+    @Override
+    public void start() {
+        try {
+            warmUp();
+        } catch (Exception e) {
+            // 预热失败不阻止启动，未预热的券在 lua 中返回库存未就绪
+            log.error("秒杀预热失败", e);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 早于 web 服务器（Integer.MAX_VALUE - 1）启动，预热完成后才开始接收请求
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 100;
+    }
+
+    /**
+     * @Description: 预热所有未结束的秒杀券<br />
+     * @param: <br/>
+     * @Return: int 预热的秒杀券数量 <br/>
+     * @Throws:
+     */
+    public int warmUp() {
+        long begin = System.currentTimeMillis();
+        int count = 0;
+        long lastVoucherId = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id", "stock", "stock_segments")
+                    .gt("voucher_id", lastVoucherId)
+                    .gt("end_time", LocalDateTime.now())
+                    // 抽签券不走秒杀，不预热库存
+                    .notInSql("voucher_id", "select id from tb_voucher where type = " + SystemConstants.VOUCHER_TYPE_LOTTERY)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + PAGE_SIZE)
+                    .list();
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            warmUp(vouchers);
+            count += vouchers.size();
+            lastVoucherId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+        log.info("秒杀预热完成，共 {} 张券，耗时 {} ms", count, System.currentTimeMillis() - begin);
+        return count;
+    }
+
+    /**
+     * @Description: 预热指定的秒杀券<br />
+     * @param: Long voucherId <br/>
+     * @Return: boolean 秒杀券是否存在，抽签券不预热，按不存在处理 <br/>
+     * @Throws:
+     */
+    public boolean warmUp(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .select("voucher_id", "stock", "stock_segments")
+                .eq("voucher_id", voucherId)
+                .notInSql("voucher_id", "select id from tb_voucher where type = " + SystemConstants.VOUCHER_TYPE_LOTTERY)
+                .one();
+        if (voucher == null) {
+            return false;
+        }
+        warmUp(Collections.singletonList(voucher));
+        return true;
+    }
+
+    private void warmUp(List<SeckillVoucher> vouchers) {
+        Map<Long, Integer> segmentsOfVoucher = new HashMap<>(vouchers.size());
+        for (SeckillVoucher voucher : vouchers) {
+            Integer segments = voucher.getStockSegments();
+            segmentsOfVoucher.put(voucher.getVoucherId(), segments == null || segments < 1 ? 1 : segments);
+        }
+
+        // 1.库存：redis 中不存在时写入数据库中的库存
+        List<Object> written = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (SeckillVoucher voucher : vouchers) {
+                Long voucherId = voucher.getVoucherId();
+                int segments = segmentsOfVoucher.get(voucherId);
+                int stock = Math.max(0, voucher.getStock());
+                if (segments > 1) {
+                    for (int i = 0; i < segments; i++) {
+                        int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+                        stringConnection.setNX(SeckillStockSegments.stockKey(voucherId, i), String.valueOf(segmentStock));
+                    }
+                } else {
+                    stringConnection.setNX(RedisConstants.SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+                }
+            }
+            return null;
+        });
+        // 恢复 redis 中的分段数
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            segmentsOfVoucher.forEach((voucherId, segments) -> {
+                if (segments > 1) {
+                    stringConnection.set(RedisConstants.SECKILL_SEGMENTS_KEY + voucherId, String.valueOf(segments));
+                }
+            });
+            return null;
+        });
+        // 补写了库存且库存大于0的券，清除各节点的售罄标记
+        int index = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            int segments = segmentsOfVoucher.get(voucher.getVoucherId());
+            boolean restocked = false;
+            for (int i = 0; i < Math.max(segments, 1); i++) {
+                restocked |= Boolean.TRUE.equals(written.get(index++));
+            }
+            if (restocked && voucher.getStock() > 0) {
+                soldOutRegistry.publishRestock(voucher.getVoucherId());
+            }
+        }
+
+        // 2.已购买用户：按订单主键分页读取，补齐一人一单集合
+        List<Long> voucherIds = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        long lastOrderId = Long.MIN_VALUE;
+        while (true) {
+            List<VoucherOrder> orders = voucherOrderService.query()
+                    .select("id", "user_id", "voucher_id")
+                    .in("voucher_id", voucherIds)
+                    .gt("id", lastOrderId)
+                    .orderByAsc("id")
+                    .last("limit " + PAGE_SIZE)
+                    .list();
+            if (orders.isEmpty()) {
+                break;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (VoucherOrder order : orders) {
+                    int segments = segmentsOfVoucher.get(order.getVoucherId());
+                    if (segments > 1) {
+                        String orderKey = SeckillStockSegments.orderKey(order.getVoucherId(), SeckillStockSegments.segmentOf(order.getUserId(), segments));
+                        stringConnection.sAdd(orderKey, order.getUserId().toString());
+                    } else {
+                        buyerTracker.add(stringConnection, order.getVoucherId(), order.getUserId());
+                    }
+                }
+                return null;
+            });
+            lastOrderId = orders.get(orders.size() - 1).getId();
+        }
+    }
+}
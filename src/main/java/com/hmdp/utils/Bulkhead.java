@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Description: 舱壁（bulkhead），限制一组接口同时占用的请求线程数<br/>
+ * 超出 maxConcurrent 时最多等待 waitMillis，仍拿不到名额直接拒绝，不排队占用线程；
+ * 一组接口变慢时只会耗尽自己的名额，不会拖垮其他接口<br/>
+ * maxConcurrent 小于等于0时不限制<br/>
+ * @Version 1.0
+ */
+public class Bulkhead {
+
+    private final String name;
+
+    private final int maxConcurrent;
+
+    private final long waitMillis;
+
+    private final Semaphore permits;
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(String name, int maxConcurrent, long waitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.waitMillis = waitMillis;
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @Description: 获取名额，成功后必须调用 release<br />
+     * @param: <br/>
+     * @Return: boolean 是否获取成功 <br/>
+     * @Throws:
+     */
+    public boolean tryAcquire() {
+        if (permits == null) {
+            admitted.increment();
+            return true;
+        }
+        boolean acquired;
+        try {
+            acquired = waitMillis > 0 ? permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS) : permits.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (acquired) {
+            admitted.increment();
+        } else {
+            rejected.increment();
+        }
+        return acquired;
+    }
+
+    public void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("waitMillis", waitMillis);
+        stats.put("active", permits == null ? null : maxConcurrent - permits.availablePermits());
+        stats.put("admitted", admitted.sum());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Description: 逻辑过期缓存的提前刷新<br/>
+ * 记录每个逻辑过期 key 的访问频率（每个间隔衰减一半），热点 key 在逻辑过期前 ahead-ms 内由后台提前重建，
+ * 请求不再读到过期数据；每个间隔最多刷新 max-per-run 个 key，按热度从高到低，避免集中过期时压垮数据库<br/>
+ * 一段时间没有访问的 key 不再记录；记录的 key 数量达到 max-keys 后不再加入新 key<br/>
+ * 重建在 taskExecutor 中执行，定时任务线程只负责提交；线程池队列已满时本次不再提交，
+ * 避免 CallerRuns 在定时任务线程中同步重建<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class CacheRefreshAhead {
+
+    @Value("${hmdp.cache.refresh-ahead.enabled:true}")
+    private boolean enabled;
+
+    // 逻辑过期前多久开始刷新（毫秒）
+    @Value("${hmdp.cache.refresh-ahead.ahead-ms:10000}")
+    private long aheadMillis;
+
+    // 热度（衰减后的访问次数）达到多少才提前刷新
+    @Value("${hmdp.cache.refresh-ahead.min-hits:5}")
+    private long minHits;
+
+    // 每个间隔最多刷新的 key 数量
+    @Value("${hmdp.cache.refresh-ahead.max-per-run:20}")
+    private int maxPerRun;
+
+    // 最多记录的 key 数量
+    @Value("${hmdp.cache.refresh-ahead.max-keys:10000}")
+    private int maxKeys;
+
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    private final ThreadPoolTaskExecutor taskExecutor;
+
+    public CacheRefreshAhead(@Qualifier("taskExecutor") ThreadPoolTaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    public long getAheadMillis() {
+        return aheadMillis;
+    }
+
+    /**
+     * @Description: 记录一次逻辑过期缓存的访问<br />
+     * @param: String key
+     * @param: long expireAt 当前缓存的逻辑过期时间（毫秒时间戳）
+     * @param: Runnable refresh 提交重建任务到 taskExecutor，由调用方负责去重和加锁，不能在当前线程重建 <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void record(String key, long expireAt, Runnable refresh) {
+        if (!enabled) {
+            return;
+        }
+        Tracked entry = tracked.get(key);
+        if (entry == null) {
+            if (tracked.size() >= maxKeys) {
+                return;
+            }
+            entry = tracked.computeIfAbsent(key, k -> new Tracked());
+        }
+        entry.refresh = refresh;
+        entry.expireAt = expireAt;
+        entry.hits.increment();
+    }
+
+    /**
+     * 每个间隔统计一次热度，刷新快要过期的热点 key
+     */
+    @Scheduled(initialDelayString = "${hmdp.cache.refresh-ahead.interval-ms:1000}", fixedDelayString = "${hmdp.cache.refresh-ahead.interval-ms:1000}")
+    public void refresh() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Tracked>> due = new ArrayList<>();
+        tracked.forEach((key, entry) -> {
+            // 只由刷新线程修改
+            entry.score = entry.score / 2 + entry.hits.sumThenReset();
+            if (entry.score == 0) {
+                tracked.remove(key, entry);
+                return;
+            }
+            if (entry.score >= minHits && entry.expireAt - now <= aheadMillis) {
+                due.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+            }
+        });
+        if (due.isEmpty()) {
+            return;
+        }
+        due.sort(Comparator.comparingLong((Map.Entry<String, Tracked> e) -> e.getValue().score).reversed());
+        for (int i = 0; i < due.size() && i < maxPerRun; i++) {
+            if (taskExecutor.getThreadPoolExecutor().getQueue().remainingCapacity() == 0) {
+                // 线程池繁忙，剩下的 key 等下个间隔或过期后由请求触发
+                break;
+            }
+            Map.Entry<String, Tracked> e = due.get(i);
+            Tracked entry = e.getValue();
+            // 刷新后等下一次访问带回新的过期时间，失败也不在下个间隔重复刷新
+            entry.expireAt = Long.MAX_VALUE;
+            try {
+                entry.refresh.run();
+            } catch (Exception ex) {
+                log.warn("提交提前刷新缓存 {} 失败", e.getKey(), ex);
+            }
+        }
+    }
+
+    private static class Tracked {
+        final LongAdder hits = new LongAdder();
+        volatile long expireAt;
+        volatile Runnable refresh;
+        long score;
+    }
+}
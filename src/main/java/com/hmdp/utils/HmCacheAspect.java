@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * @Description: 处理 @HmCacheable，按注解选择 RedisUtil 的空值缓存 + 互斥锁或逻辑过期方式查询<br/>
+ * @Version 1.0
+ */
+@Aspect
+@Component
+public class HmCacheAspect {
+
+    private final ExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    // key 表达式 -> 解析后的表达式
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    private final RedisUtil redisUtil;
+
+    public HmCacheAspect(RedisUtil redisUtil) {
+        this.redisUtil = redisUtil;
+    }
+
+    @Around("@annotation(cacheable)")
+    public Object around(ProceedingJoinPoint joinPoint, HmCacheable cacheable) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object key = parseKey(cacheable.key(), method, joinPoint.getArgs(), joinPoint.getTarget());
+        Supplier<Object> doQuery = () -> {
+            try {
+                return joinPoint.proceed();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        };
+        if (cacheable.strategy() == HmCacheable.Strategy.LOGICAL_EXPIRE) {
+            return redisUtil.queryWithLogicalExpire(cacheable.region(), key, method.getGenericReturnType(),
+                    cacheable.ttl(), cacheable.unit(), doQuery);
+        }
+        return redisUtil.queryWithPassThrough(cacheable.region(), key, method.getGenericReturnType(),
+                cacheable.ttl(), cacheable.unit(), cacheable.local(), doQuery);
+    }
+
+    private Object parseKey(String key, Method method, Object[] args, Object target) {
+        Expression expression = expressions.computeIfAbsent(key, parser::parseExpression);
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(target, method, args, parameterNameDiscoverer);
+        Object value = expression.getValue(context);
+        if (value == null) {
+            throw new IllegalArgumentException("缓存key为null：" + method + " " + key);
+        }
+        return value;
+    }
+}
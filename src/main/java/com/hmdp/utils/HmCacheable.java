@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 声明式缓存，方法的返回值缓存在 redis 的 cache:{region}:{key} 中，由 HmCacheAspect 处理<br/>
+ * 返回null时缓存空值（CACHE_NULL_TTL 分钟），避免缓存穿透；过期时间带随机抖动（hmdp.cache.ttl-jitter）<br/>
+ * 在同一个类中调用时需要通过代理（AopContext.currentProxy()）调用才会生效<br/>
+ * @Version 1.0
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheable {
+
+    /**
+     * 缓存区域，作为 key 和重建锁的前缀
+     */
+    String region();
+
+    /**
+     * 缓存 key 的 SpEL 表达式，如 #id
+     */
+    String key();
+
+    /**
+     * 过期时间，LOGICAL_EXPIRE 时为逻辑过期时间
+     */
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    Strategy strategy() default Strategy.PASS_THROUGH;
+
+    /**
+     * 是否使用进程内的本地缓存（只用于 PASS_THROUGH），返回的对象是共享的，调用方不能修改
+     */
+    boolean local() default false;
+
+    enum Strategy {
+        /**
+         * 缓存带过期时间，缓存不存在时互斥锁重建
+         */
+        PASS_THROUGH,
+        /**
+         * 缓存不过期，逻辑过期后异步重建并返回旧数据，适合热点数据
+         */
+        LOGICAL_EXPIRE
+    }
+}
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Description: 进程内一级缓存（redis 为二级缓存）<br/>
+ * 按 key 的哈希分成多段，每段是一个按访问顺序排列的 LinkedHashMap，总权重（缓存的 json 长度之和）超过上限时淘汰最久未访问的条目，
+ * 条目写入后 ttl 秒过期<br/>
+ * 缓存的是反序列化后的对象，调用方不能修改返回的对象<br/>
+ * RedisUtil 删除 redis 缓存后调用 evict 广播，各节点在毫秒级内删除本地条目；
+ * 读 redis 期间收到删除广播的，读到的值不写入本地缓存，避免把旧值放回去<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    private static final int SEGMENTS = 16;
+
+    @Value("${hmdp.cache.local.enabled:true}")
+    private boolean enabled;
+
+    // 所有条目的权重（json 字符数）上限
+    @Value("${hmdp.cache.local.max-weight:10000000}")
+    private long maxWeight;
+
+    @Value("${hmdp.cache.local.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    // 每次删除加一，用于判断读 redis 期间是否有删除
+    private final AtomicLong generation = new AtomicLong();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public LocalCache(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxWeight / SEGMENTS);
+        }
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_EVICT_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 当前的删除代数，在读取二级缓存之前获取，写入时传给 put
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @Description: 查询本地缓存<br />
+     * @param: String key <br/>
+     * @Return: com.hmdp.utils.LocalCache.Entry 不存在或已过期时返回null；缓存的空值返回 value 为null的条目 <br/>
+     * @Throws:
+     */
+    public Entry get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        return segmentOf(key).get(key, System.currentTimeMillis());
+    }
+
+    /**
+     * @Description: 写入本地缓存，读取期间有删除（代数变化）时不写入<br />
+     * @param: String key
+     * @param: Object value 空值缓存传null
+     * @param: int weight 权重，一般为 json 长度
+     * @param: long ttlMillis 不超过配置的 ttl
+     * @param: long generation 读取二级缓存之前获取的代数 <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void put(String key, Object value, int weight, long ttlMillis, long generation) {
+        if (!enabled) {
+            return;
+        }
+        long expireAt = System.currentTimeMillis() + Math.min(ttlMillis, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        Segment segment = segmentOf(key);
+        synchronized (segment) {
+            if (this.generation.get() != generation) {
+                return;
+            }
+            segment.put(key, new Entry(value, Math.max(weight, 1) + key.length(), expireAt));
+        }
+    }
+
+    /**
+     * @Description: 删除本节点的本地缓存，并通知其他节点删除，redis 缓存由 RedisUtil 删除<br />
+     * @param: String key <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void evict(String key) {
+        invalidate(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_EVICT_CHANNEL, key);
+    }
+
+    private void invalidate(String key) {
+        Segment segment = segmentOf(key);
+        synchronized (segment) {
+            generation.incrementAndGet();
+            segment.remove(key);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private Segment segmentOf(String key) {
+        return segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+    }
+
+    public static class Entry {
+        private final Object value;
+        private final int weight;
+        private final long expireAt;
+
+        Entry(Object value, int weight, long expireAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    private static class Segment {
+        private final long maxWeight;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long weight;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Entry get(String key, long now) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireAt <= now) {
+                remove(key);
+                return null;
+            }
+            return entry;
+        }
+
+        // 调用方持有锁
+        void put(String key, Entry entry) {
+            if (entry.weight > maxWeight) {
+                return;
+            }
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entry.weight;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                weight -= iterator.next().getValue().weight;
+                iterator.remove();
+            }
+        }
+
+        // 调用方持有锁
+        void remove(String key) {
+            Entry old = entries.remove(key);
+            if (old != null) {
+                weight -= old.weight;
+            }
+        }
+    }
+}
@@ -6,20 +6,64 @@ public class RedisConstants {
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 1440L;
 
+    // 缓存和重建锁的前缀，完整key为 cache:{region}:{id}、lock:{region}:{id}
+    public static final String CACHE_KEY_PREFIX = "cache:";
+    public static final String LOCK_KEY_PREFIX = "lock:";
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // 删除缓存的广播频道，消息内容为缓存key，各节点收到后删除本地缓存
+    public static final String CACHE_EVICT_CHANNEL = "cache:channel:evict";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀券的库存分段数，不存在表示不分段；以数据库 tb_seckill_voucher.stock_segments 为准，预热时恢复
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments:";
+    // 节点已租借、尚未售出的库存数，租借、售出、归还时在 lua 中与库存一起更新
+    public static final String SECKILL_LEASED_KEY = "seckill:leased:";
+    // 已购买用户的分片位图前缀，完整key为 seckill:buyers:{voucherId}:{分片}
+    public static final String SECKILL_BUYER_BITMAP_KEY = "seckill:buyers:";
+    // 秒杀券售罄/恢复库存的广播频道，消息内容为优惠券id
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:channel:soldout";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:channel:restock";
+    // 秒杀券元数据变更的广播频道，消息内容为优惠券id
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:channel:voucher";
+    // 异步秒杀订单状态 hash，以及状态变化的广播频道
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:status:";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:channel:status";
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    // 消费者超过该时间（毫秒）未确认的消息，视为消费者失联，由其他消费者认领
+    public static final Long SECKILL_STREAM_CLAIM_IDLE = 60000L;
+    // 消息最大投递次数，超过后不再重试
+    public static final Long SECKILL_STREAM_MAX_DELIVERY = 5L;
+    // 消费者空闲超过该时间（毫秒）且没有未确认的消息时，从消费者组中删除（每次启动使用新的消费者名称）
+    public static final Long SECKILL_STREAM_CONSUMER_IDLE = 600000L;
+    // 秒杀券使用的秒杀引擎 hash（优惠券id -> 引擎名称），以及变更的广播频道
+    public static final String SECKILL_ENGINE_KEY = "seckill:engine";
+    public static final String SECKILL_ENGINE_CHANNEL = "seckill:channel:engine";
+    // 未配置 hmdp.seckill.token.secret 时，各节点共享的秒杀令牌签名密钥
+    public static final String SECKILL_TOKEN_SECRET_KEY = "seckill:token:secret";
+    // 待开奖的抽签券 zset（优惠券id，score 为报名截止时间戳），报名用户集合，中签结果 hash（userId -> 订单id），开奖完成标记
+    public static final String LOTTERY_PENDING_KEY = "lottery:pending";
+    public static final String LOTTERY_ENTRIES_KEY = "lottery:entries:";
+    public static final String LOTTERY_WINNERS_KEY = "lottery:winners:";
+    public static final String LOTTERY_DRAWN_KEY = "lottery:drawn:";
+    // 开奖中的抽签券 zset（优惠券id，score 为租约到期时间戳），租约过期后由其他节点重新认领
+    public static final String LOTTERY_PROCESSING_KEY = "lottery:processing";
+    // 开奖结果保留的天数
+    public static final Long LOTTERY_RESULT_TTL = 7L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
 
     public static final String FOLLOW_COMMON_KEY = "follow:common:";
     public static final String FEED_KEY = "feed:consignee:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    // 新增商铺的广播频道，消息内容为商铺id，各节点收到后加入布隆过滤器
+    public static final String SHOP_BLOOM_CHANNEL = "shop:channel:bloom";
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -1,18 +1,35 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * @Description: <br/>
+ * @Description: redis 分布式锁<br/>
+ * 锁的值为 jvm 标示 + 线程id，释放和续期都用 lua 脚本先比较再操作，不会误删其他线程的锁<br/>
+ * 同一 key 在本节点先经过一把本地锁：同节点的线程在本地排队，只有拿到本地锁的线程去 redis 加锁；
+ * 持有锁的线程再次加锁时只在本地计数（可重入），最后一次释放时才删除 redis 中的锁<br/>
+ * 不指定过期时间时由看门狗每 1/3 个过期时间续期一次，直到释放<br/>
  * @Date: 2023/3/1 20:38 <br/>
  * @Author sanyeshu <br/>
  * @Version 1.0
  */
+@Slf4j
 @Component
 public class RedisLock {
 
@@ -20,14 +37,56 @@ public class RedisLock {
     // 设置成静态属性，这样每一个jvm的前缀是一致的
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
 
+    // 看门狗模式的过期时间（毫秒）
+    private static final long WATCHDOG_TIMEOUT = 30000L;
+
+    // 等待 redis 锁时的最大重试间隔（毫秒）
+    private static final long MAX_RETRY_INTERVAL = 50L;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("/lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("/lua/lock_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    // 锁的key -> 本地锁，没有线程持有或等待时移除
+    private final Map<String, LocalLock> localLocks = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder acquired = new LongAdder();
+    // 本地锁被同节点其他线程持有的次数
+    private final LongAdder localContended = new LongAdder();
+    // redis 锁被其他节点持有的次数
+    private final LongAdder redisContended = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Histogram acquireStats = new Histogram();
+
     private final StringRedisTemplate stringRedisTemplate;
 
     public RedisLock(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
     /**
-     * @Description: 获取锁<br />
+     * @Description: 获取锁，不等待<br />
      * @Author: sanyeshu <br/>
      * @Date: 2023/3/2 10:27 <br/>
      * @param: String key 锁的key（用来实现互斥）
@@ -37,14 +96,108 @@ public class RedisLock {
      * @Throws:
      */
     public boolean lock(String key, Long expireTime, TimeUnit timeUnit) {
-        ValueOperations<String, String> stringStringValueOperations = stringRedisTemplate.opsForValue();
-        long id = Thread.currentThread().getId();
-        Boolean lock = stringStringValueOperations.setIfAbsent(PERFIX_LOCK + key, ID_PREFIX + id, expireTime, timeUnit);
-        return Boolean.TRUE.equals(lock);
+        return tryLock(key, 0, timeUnit.toMillis(expireTime), TimeUnit.MILLISECONDS);
     }
 
     /**
-     * @Description: 释放锁<br />
+     * @Description: 获取锁，最多等待 waitTime，由看门狗续期直到释放<br />
+     * @param: String key
+     * @param: long waitTime
+     * @param: TimeUnit timeUnit <br/>
+     * @Return: boolean <br/>
+     * @Throws:
+     */
+    public boolean tryLock(String key, long waitTime, TimeUnit timeUnit) {
+        return tryLock(key, waitTime, -1, timeUnit);
+    }
+
+    /**
+     * @Description: 获取锁，最多等待 waitTime<br />
+     * @param: String key
+     * @param: long waitTime
+     * @param: long leaseTime 过期时间，小于等于0时使用看门狗续期
+     * @param: TimeUnit timeUnit <br/>
+     * @Return: boolean <br/>
+     * @Throws:
+     */
+    public boolean tryLock(String key, long waitTime, long leaseTime, TimeUnit timeUnit) {
+        String redisKey = PERFIX_LOCK + key;
+        long begin = System.nanoTime();
+        long deadline = begin + timeUnit.toNanos(waitTime);
+        LocalLock localLock = retain(redisKey);
+
+        // 1.已持有锁，重入
+        if (localLock.lock.isHeldByCurrentThread()) {
+            localLock.lock.lock();
+            acquired.increment();
+            return true;
+        }
+
+        // 2.同节点的线程在本地排队
+        boolean locked = localLock.lock.tryLock();
+        if (!locked) {
+            localContended.increment();
+            try {
+                locked = localLock.lock.tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!locked) {
+            release(redisKey, localLock);
+            timeouts.increment();
+            return false;
+        }
+
+        // 3.拿到本地锁后去 redis 加锁，被其他节点持有时重试到超时
+        String threadId = ID_PREFIX + Thread.currentThread().getId();
+        long leaseMillis = leaseTime > 0 ? timeUnit.toMillis(leaseTime) : WATCHDOG_TIMEOUT;
+        boolean contended = false;
+        while (true) {
+            Boolean success;
+            try {
+                success = stringRedisTemplate.opsForValue().setIfAbsent(redisKey, threadId, leaseMillis, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                localLock.lock.unlock();
+                release(redisKey, localLock);
+                throw e;
+            }
+            if (Boolean.TRUE.equals(success)) {
+                break;
+            }
+            if (!contended) {
+                contended = true;
+                redisContended.increment();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                localLock.lock.unlock();
+                release(redisKey, localLock);
+                timeouts.increment();
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_INTERVAL)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                localLock.lock.unlock();
+                release(redisKey, localLock);
+                return false;
+            }
+        }
+
+        // 4.看门狗续期
+        if (leaseTime <= 0) {
+            localLock.renewal = watchdog.scheduleAtFixedRate(() -> renew(redisKey, threadId),
+                    WATCHDOG_TIMEOUT / 3, WATCHDOG_TIMEOUT / 3, TimeUnit.MILLISECONDS);
+        }
+        acquired.increment();
+        acquireStats.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        return true;
+    }
+
+    /**
+     * @Description: 释放锁，重入多次时需要释放同样的次数<br />
      * @Author: sanyeshu <br/>
      * @Date: 2023/3/2 10:28 <br/>
      * @param: String key <br/>
@@ -52,18 +205,83 @@ public class RedisLock {
      * @Throws:
      */
     public void unLock(String key) {
+        String redisKey = PERFIX_LOCK + key;
+        LocalLock localLock = localLocks.get(redisKey);
+        if (localLock == null || !localLock.lock.isHeldByCurrentThread()) {
+            log.warn("释放未持有的锁：{}", key);
+            return;
+        }
+        try {
+            if (localLock.lock.getHoldCount() == 1) {
+                // 最后一次释放：停止续期，判断是自己的锁再删除
+                if (localLock.renewal != null) {
+                    localLock.renewal.cancel(false);
+                    localLock.renewal = null;
+                }
+                String threadId = ID_PREFIX + Thread.currentThread().getId();
+                stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(redisKey), threadId);
+            }
+        } finally {
+            localLock.lock.unlock();
+            release(redisKey, localLock);
+        }
+    }
 
-        // 获取线程id
-        long id = Thread.currentThread().getId();
+    private void renew(String redisKey, String threadId) {
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(redisKey),
+                    threadId, String.valueOf(WATCHDOG_TIMEOUT));
+            if (renewed == null || renewed == 0L) {
+                log.warn("锁 {} 已不属于当前线程，停止续期", redisKey);
+                LocalLock localLock = localLocks.get(redisKey);
+                if (localLock != null && localLock.renewal != null) {
+                    localLock.renewal.cancel(false);
+                }
+            }
+        } catch (Exception e) {
+            // redis 暂时不可用时等待下次续期
+            log.error("锁 {} 续期失败", redisKey, e);
+        }
+    }
 
-        // 获取线程标示
-        String threadId = ID_PREFIX + Thread.currentThread().getId();
+    /**
+     * 引用本地锁，每次 retain 都要对应一次 release
+     */
+    private LocalLock retain(String redisKey) {
+        return localLocks.compute(redisKey, (k, localLock) -> {
+            if (localLock == null) {
+                localLock = new LocalLock();
+            }
+            localLock.references++;
+            return localLock;
+        });
+    }
 
-        // 判断是否是自己的锁，是则释放
-        String redisKey = PERFIX_LOCK + key;
-        String s = stringRedisTemplate.opsForValue().get(redisKey);
-        if (threadId.equals(s)) {
-            stringRedisTemplate.delete(redisKey);
-        }
+    private void release(String redisKey, LocalLock localLock) {
+        localLocks.computeIfPresent(redisKey, (k, current) -> {
+            if (current != localLock) {
+                return current;
+            }
+            return --current.references == 0 ? null : current;
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("acquired", acquired.sum());
+        stats.put("localContended", localContended.sum());
+        stats.put("redisContended", redisContended.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("localKeys", localLocks.size());
+        stats.put("acquireMicros", acquireStats.snapshot());
+        return stats;
+    }
+
+    private static class LocalLock {
+        final ReentrantLock lock = new ReentrantLock();
+        // 持有或等待该锁的次数，只在 ConcurrentHashMap.compute 中修改
+        int references;
+        // 看门狗续期任务，只由持有锁的线程修改
+        volatile ScheduledFuture<?> renewal;
     }
 }
@@ -1,20 +1,38 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.json.JSONObject;
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.date.LocalDateTimeUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.json.JSON;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.RedisData;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import reactor.util.annotation.Nullable;
 
+import java.lang.reflect.Type;
 import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @Description: Redis 使用工具类
@@ -31,11 +49,75 @@ public class RedisUtil {
 
     private final ThreadPoolTaskExecutor taskExecutor;
 
+    private final LocalCache localCache;
+
+    private final CacheRefreshAhead cacheRefreshAhead;
+
+    private static final String SHOP_REGION = "shop";
+
+    // 互斥锁过期时间（秒），也是没得到锁时等待其他节点加载的最长时间
+    private static final long LOCK_TTL = 10;
+
+    // 没得到锁时重新查询缓存的最大间隔（毫秒）
+    private static final long MAX_BACKOFF = 200;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("/lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    // 本节点正在加载的缓存：key -> 加载结果（数据的 json，数据不存在时为空字符串）
+    private final Map<String, CompletableFuture<String>> loading = new ConcurrentHashMap<>();
+
+    // 本节点已提交、尚未完成重建的逻辑过期缓存
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    // 缓存过期时间的随机抖动比例
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
     @Autowired
-    public RedisUtil(RedisTemplate redisTemplate, StringRedisTemplate stringRedisTemplate, @Qualifier("taskExecutor") ThreadPoolTaskExecutor taskExecutor) {
+    public RedisUtil(RedisTemplate redisTemplate, StringRedisTemplate stringRedisTemplate, @Qualifier("taskExecutor") ThreadPoolTaskExecutor taskExecutor, LocalCache localCache, CacheRefreshAhead cacheRefreshAhead) {
         this.redisTemplate = redisTemplate;
         this.stringRedisTemplate = stringRedisTemplate;
         this.taskExecutor = taskExecutor;
+        this.localCache = localCache;
+        this.cacheRefreshAhead = cacheRefreshAhead;
+    }
+
+    /**
+     * @Description: 删除缓存（redis 和所有节点的本地缓存）<br/>
+     * @param: String key <br/>
+     * @Return: void
+     * @Throws:
+     */
+    public void evict(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.evict(key);
+    }
+
+    /**
+     * @Description: 删除某个区域的缓存，在事务中调用时等事务提交后再删除，避免提交前被其他线程用旧数据重建<br/>
+     * @param: String region
+     * @param: Object id <br/>
+     * @Return: void
+     * @Throws:
+     */
+    public void evict(String region, Object id) {
+        String key = cacheKey(region, id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(key);
+                }
+            });
+        } else {
+            evict(key);
+        }
     }
 
     /**
@@ -71,148 +153,330 @@ public class RedisUtil {
      * @Date 2023/2/10 21:40
      */
     public <T> void setJsonOfLogicExpire(String key, @Nullable T object, LocalDateTime expireTime) {
-        RedisData<T> redisData = new RedisData();
-        redisData.setData(object);
-        redisData.setExpiryTime(expireTime);
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        stringRedisTemplate.opsForValue().set(key, toJsonOfLogicExpire(object, expireTime));
     }
 
     /**
-     * @Description: 根据id查询，空值解决缓存穿透<br/>
+     * @Description: 根据商铺id查询，空值解决缓存穿透，等同于 region 为 shop 的 queryWithPassThrough<br/>
      * @Author: sanyeshu <br/>
      * @Date: 2023/2/20 14:17 <br/>
      * @Param: <br/>
      * @Return:
      */
     public <R, T> R queryByIdWithPassThrough(T id, Class<R> returnClass, Function<T, R> doQuery) {
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        // redis 查询商家缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        return queryWithPassThrough(SHOP_REGION, id, returnClass, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES, true, () -> doQuery.apply(id));
+    }
+
+    /**
+     * @Description: 根据商铺id查询信息，逻辑过期避免缓存击穿，等同于 region 为 shop 的 queryWithLogicalExpire <br/>
+     * @Author: sanyeshu <br/>
+     * @Date: 2023/2/20 19:31 <br/>
+     * @param: T id
+     * @param: Class<R> returnClass
+     * @param: Function<T doQuery < br />
+     * @Return: R
+     * @Throws:
+     */
+    public <R, T> R queryByIdOfLogicExpire(T id, Class<R> returnClass, Function<T, R> doQuery) {
+        return queryWithLogicalExpire(SHOP_REGION, id, returnClass, RedisConstants.CACHE_SHOP_TTL, TimeUnit.SECONDS, () -> doQuery.apply(id));
+    }
+
+    /**
+     * @Description: 查询缓存，空值解决缓存穿透，互斥锁解决缓存击穿<br/>
+     * key 为 cache:{region}:{id}，锁为 lock:{region}:{id}；过期时间加上随机抖动，避免同一批缓存同时过期<br/>
+     * 未命中时本节点同一个 key 只有一个线程加载并竞争互斥锁，其他线程等待加载结果<br/>
+     * local 为 true 时先查本地缓存，redis 命中的结果（包括空值）写入本地缓存，本地缓存最多保留 hmdp.cache.local.ttl-seconds 秒，
+     * 本地缓存的对象是共享的，调用方不能修改<br/>
+     * @param: String region 缓存区域
+     * @param: Object id
+     * @param: Type type 返回值类型，可以是泛型类型
+     * @param: long ttl
+     * @param: TimeUnit unit
+     * @param: boolean local 是否使用本地缓存
+     * @param: Supplier<R> doQuery 查询数据库 <br/>
+     * @Return: R 数据不存在时返回null
+     * @Throws:
+     */
+    public <R> R queryWithPassThrough(String region, Object id, Type type, long ttl, TimeUnit unit, boolean local, Supplier<R> doQuery) {
+        String key = cacheKey(region, id);
+        // 本地缓存
+        if (local) {
+            LocalCache.Entry entry = localCache.get(key);
+            if (entry != null) {
+                return (R) entry.getValue();
+            }
+        }
+        long generation = localCache.generation();
+
+        // redis 查询缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (json == null) {
+            // 不存在，本节点同一个 key 只由一个线程加载，其他线程等待它的结果
+            json = loadOnce(key, lockKey(region, id), doQuery, JSONUtil::toJsonStr, jitter(ttl, unit));
+        }
 
         // 如果是缓存的空值，直接返回。--缓存空对象避免缓存穿透
-        if ("".equals(shopJson)) {
+        if ("".equals(json)) {
+            if (local) {
+                localCache.put(key, null, 0, TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL), generation);
+            }
             return null;
         }
 
-        // 判新是否存在
-        if (shopJson != null) {
-            // 存在，直凌返回
-            R returnData = JSONUtil.toBean(shopJson, returnClass);
-            return returnData;
+        // 从 redis 读到时各自反序列化；local 为 true 时同一个对象写入本地缓存，之后命中本地缓存的调用方共享它，不能修改
+        R returnData = JSONUtil.toBean(json, type, false);
+        if (local) {
+            localCache.put(key, returnData, json.length(), unit.toMillis(ttl), generation);
         }
+        return returnData;
+    }
 
-        // 不存在，根据id查询数据库
-        // ----互斥锁避免缓存击穿
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        Boolean lock = tryLock(lockKey);
-        R returnData = null;
+    /**
+     * @Description: 缓存未命中时加载：同一节点同一个 key 的并发请求共享一个加载结果，只有加载的线程去竞争分布式锁，
+     * 其他线程在加载完成时被唤醒，不轮询 redis<br/>
+     * @param: String key
+     * @param: String lockKey
+     * @param: Supplier<?> doQuery
+     * @param: Function<Object, String> encode 数据转换为写入 redis 的值
+     * @param: long expireSeconds redis 过期时间（秒），0 表示不过期 <br/>
+     * @Return: java.lang.String 写入 redis 的值，数据不存在时为空字符串
+     * @Throws:
+     */
+    private String loadOnce(String key, String lockKey, Supplier<?> doQuery, Function<Object, String> encode, long expireSeconds) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return await(key, inFlight);
+        }
         try {
-            // 得到锁，搜索数据存入缓存
-            if (lock) {
-                Object apply = doQuery.apply(id);
-                // 数据库中不存在，往redis中存入空值，设置2分钟的有效时间。--缓存空对象避免缓存穿透
-                if (apply == null) {
-                    stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                    return null;
-                }
-                System.out.println("--------------------走了数据库---------------");
-                // 存在，写入redis，30分钟有效时间
-                returnData = (R) doQuery.apply(id);
-                stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(returnData), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                // 返回商铺信息
-                return returnData;
-            } else {
-                // 没得到锁，等待一段时间后重试
-                Thread.sleep(50);
-                return queryByIdWithPassThrough(id, returnClass, doQuery);
-            }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            String json = loadWithLock(key, lockKey, doQuery, encode, expireSeconds);
+            future.complete(json);
+            return json;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
         } finally {
-            //释放锁
-            stringRedisTemplate.delete(lockKey);
+            loading.remove(key, future);
+        }
+    }
+
+    private String await(String key, CompletableFuture<String> inFlight) {
+        try {
+            // 加载线程最多等待 LOCK_TTL 后直接查询数据库，这里多留出查询的时间
+            return inFlight.get(LOCK_TTL * 2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待缓存加载被中断：" + key, e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("等待缓存加载超时：" + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
+    }
 
-        // 如果没查询到返回错误
-        return null;
+    /**
+     * 互斥锁避免缓存击穿：得到锁的节点查询数据库并写入 redis；没得到锁时退避等待其他节点写入，
+     * 超过锁的过期时间仍未写入（持有锁的节点可能已宕机）时直接查询数据库，不写缓存
+     */
+    private String loadWithLock(String key, String lockKey, Supplier<?> doQuery, Function<Object, String> encode, long expireSeconds) {
+        String token = UUID.randomUUID().toString(true);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_TTL);
+        long backoff = 10;
+        while (true) {
+            if (tryLock(lockKey, token)) {
+                try {
+                    // 得到锁后再查一次，可能刚被其他节点写入
+                    String json = stringRedisTemplate.opsForValue().get(key);
+                    if (json != null) {
+                        return json;
+                    }
+                    Object data = doQuery.get();
+                    // 数据库中不存在，往redis中存入空值，设置2分钟的有效时间。--缓存空对象避免缓存穿透
+                    if (data == null) {
+                        stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        return "";
+                    }
+                    // 存在，写入redis
+                    json = encode.apply(data);
+                    if (expireSeconds > 0) {
+                        stringRedisTemplate.opsForValue().set(key, json, expireSeconds, TimeUnit.SECONDS);
+                    } else {
+                        stringRedisTemplate.opsForValue().set(key, json);
+                    }
+                    return json;
+                } finally {
+                    unlock(lockKey, token);
+                }
+            }
+            ThreadUtil.sleep(backoff);
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (json != null) {
+                return json;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                Object data = doQuery.get();
+                return data == null ? "" : encode.apply(data);
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
     }
 
     /**
-     * @Description: 根据id查询信息，使用redis缓存且避免缓存击穿 <br/>
-     * @Author: sanyeshu <br/>
-     * @Date: 2023/2/20 19:31 <br/>
-     * @param: T id
-     * @param: Class<R> returnClass
-     * @param: Function<T doQuery < br />
-     * @Return: R
+     * @Description: 查询缓存，逻辑过期解决缓存击穿<br/>
+     * 缓存没有过期时间，数据中记录逻辑过期时间：未过期直接返回；已过期时开启另一个线程重建（本节点同一个 key 只提交一次，得到锁才重建，锁在重建完成后释放），
+     * 其他线程返回旧数据；缓存不存在时（冷启动）按互斥锁的方式同步加载<br/>
+     * 每次访问记录到 CacheRefreshAhead，热点 key 在过期前由后台提前刷新<br/>
+     * @param: String region 缓存区域
+     * @param: Object id
+     * @param: Type type 返回值类型，可以是泛型类型
+     * @param: long ttl 逻辑过期时间
+     * @param: TimeUnit unit
+     * @param: Supplier<R> doQuery 查询数据库 <br/>
+     * @Return: R 数据不存在时返回null
      * @Throws:
      */
-    public <R, T> R queryByIdOfLogicExpire(T id, Class<R> returnClass, Function<T, R> doQuery) {
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        // redis 查询商家缓存
+    public <R> R queryWithLogicalExpire(String region, Object id, Type type, long ttl, TimeUnit unit, Supplier<R> doQuery) {
+        String key = cacheKey(region, id);
+        String lockKey = lockKey(region, id);
+        // redis 查询缓存
         String redisJson = stringRedisTemplate.opsForValue().get(key);
-
-        RedisData<JSONObject> redisData = JSONUtil.toBean(redisJson, RedisData.class);
-        LocalDateTime expiryTime = null;
-        LocalDateTime now = LocalDateTime.now();
-        // 如果缓存中数据为null或者存在null字段
-        if (BeanUtil.hasNullField(redisData)) {
-//            // 从数据库中查询数据
-//            R returnDate = doQuery.apply(id);
-//            if (shop == null) {
-//                return Result.fail("商铺不存在");
-//            }
-//            // 设置过期时间并存入redis中
-//            expiryTime = now.plusSeconds(RedisConstants.CACHE_NULL_TTL);
-//
-//            redisUtil.setJsonOfLogicExpire(key, shop, expiryTime);
-//            // 返回数据
-//            return Result.ok(shop);
+        if (redisJson == null) {
+            // 缓存不存在（冷启动），和互斥锁方式一样同步加载
+            redisJson = loadOnce(key, lockKey, doQuery,
+                    data -> toJsonOfLogicExpire(data, LocalDateTime.now().plusSeconds(jitter(ttl, unit))), 0);
+        }
+        if ("".equals(redisJson)) {
             return null;
         }
 
-        // 查看当前缓存是否过期
-        expiryTime = redisData.getExpiryTime();
-
-        if (expiryTime.isAfter(now)) {
-            // 如果没过期，返回数据
-            R returnData = JSONUtil.toBean(redisData.getData(), returnClass);
-
+        RedisData<Object> redisData = JSONUtil.toBean(redisJson, RedisData.class);
+        R returnData = toData(redisData.getData(), type);
+        LocalDateTime expiryTime = redisData.getExpiryTime();
+        Runnable refresh = () -> submitRefresh(key, () -> refreshOfLogicExpire(key, lockKey, ttl, unit, doQuery));
+        if (expiryTime != null) {
+            // 记录访问，热点 key 在过期前由后台提前刷新
+            cacheRefreshAhead.record(key, LocalDateTimeUtil.toEpochMilli(expiryTime), refresh);
+        }
+        // 查看当前缓存是否过期，没过期直接返回
+        if (expiryTime != null && expiryTime.isAfter(LocalDateTime.now())) {
             return returnData;
         }
+        // 如果过期，新开线程根据id查询数据库并更新缓存，本节点同一个 key 只提交一次
+        refresh.run();
+        // 返回旧数据
+        return returnData;
+    }
 
-        // 如果过期，新开线程根据id查询数据库并更新缓存
-        // 互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        Boolean lock = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+    /**
+     * 提交重建任务到线程池，本节点同一个 key 在重建完成之前只提交一次
+     */
+    private void submitRefresh(String key, Runnable rebuild) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    rebuild.run();
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RuntimeException e) {
+            refreshing.remove(key);
+            throw e;
+        }
+    }
 
+    /**
+     * 重建逻辑过期缓存：其他节点持有锁时直接返回，锁在重建完成后释放；
+     * 得到锁后再读一次缓存，其他节点刚重建过（不在提前刷新的时间内）时不再重建
+     */
+    private void refreshOfLogicExpire(String key, String lockKey, long ttl, TimeUnit unit, Supplier<?> doQuery) {
+        String token = UUID.randomUUID().toString(true);
+        if (!tryLock(lockKey, token)) {
+            return;
+        }
         try {
-            // 得到锁，开启另一个线程搜索数据存入缓存
-            if (lock) {
-                taskExecutor.execute(() -> {
-                    R returnData = doQuery.apply(id);
-                    // if (shop == null) {
-                    //     // 数据库中不存在，往redis中存入空值，设置2分钟的有效时间。--缓存空对象避免缓存穿透
-                    //     //TODO
-                    //     stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-                    // }
-                    // 设置过期时间并存入redis中
-                    LocalDateTime expiry = now.plusSeconds(RedisConstants.CACHE_SHOP_TTL);
-                    setJsonOfLogicExpire(key, returnData, expiry);
-                });
+            if (isFreshOfLogicExpire(key)) {
+                return;
             }
+            rebuildOfLogicExpire(key, ttl, unit, doQuery);
         } finally {
-            //释放锁
-            stringRedisTemplate.delete(lockKey);
+            unlock(lockKey, token);
         }
+    }
 
-        R returnData = JSONUtil.toBean(redisData.getData(), returnClass);
-        // 返回结果
-        return returnData;
+    /**
+     * 逻辑过期时间晚于 当前时间 + 提前刷新时间 时视为不需要重建
+     */
+    private boolean isFreshOfLogicExpire(String key) {
+        String redisJson = stringRedisTemplate.opsForValue().get(key);
+        if (redisJson == null || "".equals(redisJson)) {
+            return false;
+        }
+        LocalDateTime expiryTime = JSONUtil.toBean(redisJson, RedisData.class).getExpiryTime();
+        return expiryTime != null
+                && LocalDateTimeUtil.toEpochMilli(expiryTime) > System.currentTimeMillis() + cacheRefreshAhead.getAheadMillis();
+    }
+
+    /**
+     * 查询数据库并写入逻辑过期缓存，数据不存在时写入空值
+     */
+    private void rebuildOfLogicExpire(String key, long ttl, TimeUnit unit, Supplier<?> doQuery) {
+        Object data = doQuery.get();
+        if (data == null) {
+            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return;
+        }
+        setJsonOfLogicExpire(key, data, LocalDateTime.now().plusSeconds(jitter(ttl, unit)));
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+    private static String toJsonOfLogicExpire(Object data, LocalDateTime expireTime) {
+        RedisData<Object> redisData = new RedisData<>();
+        redisData.setData(data);
+        redisData.setExpiryTime(expireTime);
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    private static <R> R toData(Object data, Type type) {
+        if (data instanceof JSON) {
+            return ((JSON) data).toBean(type);
+        }
+        return Convert.convert(type, data);
+    }
+
+    public static String cacheKey(String region, Object id) {
+        return RedisConstants.CACHE_KEY_PREFIX + region + ":" + id;
+    }
+
+    private static String lockKey(String region, Object id) {
+        return RedisConstants.LOCK_KEY_PREFIX + region + ":" + id;
+    }
+
+    /**
+     * 过期时间（秒）加上 0 ~ ttlJitter 比例的随机值
+     */
+    private long jitter(long ttl, TimeUnit unit) {
+        long seconds = Math.max(1, unit.toSeconds(ttl));
+        long bound = (long) (seconds * ttlJitter);
+        return bound > 0 ? seconds + ThreadLocalRandom.current().nextLong(bound + 1) : seconds;
+    }
+
+    private boolean tryLock(String key, String value) {
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, value, LOCK_TTL, TimeUnit.SECONDS);
         return Boolean.TRUE.equals(flag);
     }
+
+    // 只释放自己的锁
+    private void unlock(String key, String value) {
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), value);
+    }
 }
@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Description: 秒杀访问令牌<br/>
+ * 秒杀开始后才签发，令牌 = 过期时间戳 + "." + HMAC-SHA256(userId:voucherId:过期时间戳)，只对该用户、该券在有效期内有效<br/>
+ * 秒杀接口只在本地校验签名和过期时间，不访问 redis 和数据库，开始前的脚本请求拿不到令牌，直接以极低成本拒绝<br/>
+ * 签名密钥优先使用配置 hmdp.seckill.token.secret，未配置时在 redis 中生成一个各节点共享的随机密钥<br/>
+ * @Version 1.0
+ */
+@Component
+public class SeckillAccessToken {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Value("${hmdp.seckill.token.secret:}")
+    private String secret;
+
+    // 令牌有效期（秒）
+    @Value("${hmdp.seckill.token.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    // 是否要求秒杀请求携带令牌
+    @Value("${hmdp.seckill.token.required:true}")
+    private boolean required;
+
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    private SecretKeySpec key;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillVoucherCache seckillVoucherCache;
+
+    public SeckillAccessToken(StringRedisTemplate stringRedisTemplate, SeckillVoucherCache seckillVoucherCache) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherCache = seckillVoucherCache;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (secret == null || secret.isEmpty()) {
+            stringRedisTemplate.opsForValue().setIfAbsent(RedisConstants.SECKILL_TOKEN_SECRET_KEY, RandomUtil.randomString(32));
+            secret = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_TOKEN_SECRET_KEY);
+        }
+        key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public boolean isRequired() {
+        return required;
+    }
+
+    /**
+     * @Description: 为当前用户签发秒杀令牌，秒杀未开始或已结束时不签发<br />
+     * @param: Long voucherId
+     * @param: Long userId <br/>
+     * @Return: com.hmdp.dto.Result 成功时返回令牌 <br/>
+     * @Throws:
+     */
+    public Result issue(Long voucherId, Long userId) {
+        SeckillVoucher voucher = seckillVoucherCache.get(voucherId);
+        if (voucher == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        if (SeckillVoucherCache.isLottery(voucher)) {
+            return Result.fail("抽签券不能秒杀");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.getBeginTime().isAfter(now)) {
+            return Result.fail("秒杀尚未开始！");
+        }
+        if (voucher.getEndTime().isBefore(now)) {
+            return Result.fail("秒杀已经结束！");
+        }
+        long expire = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+        return Result.ok(expire + "." + sign(voucherId, userId, expire));
+    }
+
+    /**
+     * @Description: 校验令牌：格式、过期时间和签名，只做本地计算<br />
+     * @param: Long voucherId
+     * @param: Long userId
+     * @param: String token <br/>
+     * @Return: boolean <br/>
+     * @Throws:
+     */
+    public boolean verify(Long voucherId, Long userId, String token) {
+        if (token == null) {
+            return false;
+        }
+        int index = token.indexOf('.');
+        if (index <= 0) {
+            return false;
+        }
+        long expire;
+        try {
+            expire = Long.parseLong(token.substring(0, index));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expire < System.currentTimeMillis()) {
+            return false;
+        }
+        byte[] expected = sign(voucherId, userId, expire).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(index + 1).getBytes(StandardCharsets.US_ASCII);
+        // 固定时间比较，避免通过响应时间猜测签名
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private String sign(Long voucherId, Long userId, long expire) {
+        Mac mac = macs.get();
+        byte[] signature = mac.doFinal((userId + ":" + voucherId + ":" + expire).getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
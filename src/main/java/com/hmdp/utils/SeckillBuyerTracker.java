@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Description: 秒杀券已购买用户的记录方式（一人一单）<br/>
+ * 默认用集合（SADD seckill:order:{voucherId} userId），每个用户约占几十字节；
+ * 配置 hmdp.seckill.buyers.shard-bits 大于0时改用按 userId 分片的位图（SETBIT seckill:buyers:{voucherId}:{userId >> bits} {userId 低 bits 位} 1），
+ * 每片最多 2^bits 位，只分配用到的分片，百万用户的券只需要百 KB 级内存；id 连续时 bits 取大一些（如 32 即整张位图），id 稀疏时取小一些（如 16~20）<br/>
+ * 位图要求 userId 为非负整数；切换记录方式前需要重新预热，秒杀进行中不要切换；分段库存的券仍然使用分段集合<br/>
+ * @Version 1.0
+ */
+@Component
+public class SeckillBuyerTracker {
+
+    // 估算集合内存时默认使用的分片位数
+    private static final int ESTIMATE_SHARD_BITS = 20;
+
+    @Value("${hmdp.seckill.buyers.shard-bits:0}")
+    private int shardBits;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public SeckillBuyerTracker(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 传给 lua 脚本的分片位数，0 表示使用集合
+     */
+    public int getShardBits() {
+        return shardBits;
+    }
+
+    public static String bitmapKey(Long voucherId, Long userId, int shardBits) {
+        return RedisConstants.SECKILL_BUYER_BITMAP_KEY + voucherId + ":" + (userId >>> shardBits);
+    }
+
+    public static long bitmapOffset(Long userId, int shardBits) {
+        return userId & ((1L << shardBits) - 1);
+    }
+
+    /**
+     * @Description: 在 pipeline 中记录一个已购买用户（预热时使用）<br />
+     * @param: StringRedisConnection connection
+     * @param: Long voucherId
+     * @param: Long userId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void add(StringRedisConnection connection, Long voucherId, Long userId) {
+        if (shardBits > 0) {
+            connection.setBit(bitmapKey(voucherId, userId, shardBits), bitmapOffset(userId, shardBits), true);
+        } else {
+            connection.sAdd(RedisConstants.SECKILL_ORDER_KEY + voucherId, userId.toString());
+        }
+    }
+
+    /**
+     * @Description: 在 pipeline 中判断用户是否已记录为购买用户（对账时使用），pipeline 结果为 Boolean<br />
+     * @param: StringRedisConnection connection
+     * @param: Long voucherId
+     * @param: Long userId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void contains(StringRedisConnection connection, Long voucherId, Long userId) {
+        if (shardBits > 0) {
+            connection.getBit(bitmapKey(voucherId, userId, shardBits), bitmapOffset(userId, shardBits));
+        } else {
+            connection.sIsMember(RedisConstants.SECKILL_ORDER_KEY + voucherId, userId.toString());
+        }
+    }
+
+    /**
+     * @Description: 位图中记录的购买用户数（各分片 BITCOUNT 之和）<br />
+     * @param: Long voucherId <br/>
+     * @Return: long <br/>
+     * @Throws:
+     */
+    public long countBitmapBuyers(Long voucherId) {
+        return countBitmapBuyers(scanKeys(RedisConstants.SECKILL_BUYER_BITMAP_KEY + voucherId + ":*"));
+    }
+
+    private long countBitmapBuyers(List<String> bitmapKeys) {
+        long buyers = 0;
+        for (String key : bitmapKeys) {
+            buyers += stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        }
+        return buyers;
+    }
+
+    /**
+     * @Description: 对比该券两种记录方式的内存：集合和位图实际占用的内存（MEMORY USAGE），
+     * 以及按集合中的用户估算的位图大小<br />
+     * @param: Long voucherId <br/>
+     * @Return: java.util.Map<java.lang.String,java.lang.Object> <br/>
+     * @Throws:
+     */
+    public Map<String, Object> compareMemory(Long voucherId) {
+        String setKey = RedisConstants.SECKILL_ORDER_KEY + voucherId;
+        Long setSize = stringRedisTemplate.opsForSet().size(setKey);
+        List<String> bitmapKeys = scanKeys(RedisConstants.SECKILL_BUYER_BITMAP_KEY + voucherId + ":*");
+
+        long bitmapBuyers = countBitmapBuyers(bitmapKeys);
+        long bitmapBytes = 0;
+        for (String key : bitmapKeys) {
+            bitmapBytes += memoryUsage(key);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("shardBits", shardBits);
+        result.put("setBuyers", setSize);
+        result.put("setBytes", memoryUsage(setKey));
+        result.put("bitmapShards", bitmapKeys.size());
+        result.put("bitmapBuyers", bitmapBuyers);
+        result.put("bitmapBytes", bitmapBytes);
+        if (setSize != null && setSize > 0) {
+            result.put("bitmapEstimateBytes", estimateBitmapBytes(setKey, shardBits > 0 ? shardBits : ESTIMATE_SHARD_BITS));
+        }
+        return result;
+    }
+
+    /**
+     * 按集合中的 userId 估算分片位图的大小：每个分片的长度为最大偏移量/8 + 1 字节
+     */
+    private long estimateBitmapBytes(String setKey, int bits) {
+        Map<Long, Long> maxOffsetOfShard = new HashMap<>();
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(setKey, ScanOptions.scanOptions().count(1000).build())) {
+            while (cursor.hasNext()) {
+                long userId = Long.parseLong(cursor.next());
+                maxOffsetOfShard.merge(userId >>> bits, bitmapOffset(userId, bits), Math::max);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return maxOffsetOfShard.values().stream().mapToLong(offset -> offset / 8 + 1).sum();
+    }
+
+    private List<String> scanKeys(String pattern) {
+        return stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return keys;
+        });
+    }
+
+    private long memoryUsage(String key) {
+        Object usage = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+        return usage instanceof Number ? ((Number) usage).longValue() : 0L;
+    }
+}
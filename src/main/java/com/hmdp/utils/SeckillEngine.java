@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+
+/**
+ * @Description: 秒杀引擎：一种秒杀实现（数据库乐观锁、本地锁、redis 锁、lua + 消息队列）<br/>
+ * 由 {@link SeckillEngineRouter} 按优惠券选择，调用时当前用户已保存在 {@link UserHolder} 中<br/>
+ * @Version 1.0
+ */
+@FunctionalInterface
+public interface SeckillEngine {
+
+    /**
+     * @Description: 当前用户秒杀指定的优惠券<br />
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.dto.Result 成功时返回订单id <br/>
+     * @Throws:
+     */
+    Result seckill(Long voucherId);
+}
@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Description: 秒杀引擎路由<br/>
+ * 每张券使用哪个秒杀引擎：默认引擎由配置 hmdp.seckill.engine.default 指定，
+ * 单张券可以通过管理接口指定（保存在 redis hash seckill:engine 中，变更时广播，各节点更新本地副本）<br/>
+ * 人少的小活动可以走简单的数据库实现，大促走 redis 实现；每个引擎单独统计请求数、成功、售罄、重复购买和耗时<br/>
+ * 注意：数据库实现只扣数据库库存，lua 实现先扣 redis 库存，同一张券应在秒杀开始前确定引擎，秒杀进行中切换会使两边库存不一致<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillEngineRouter implements MessageListener, SmartInitializingSingleton {
+
+    public static final String EASY = "easy";
+    public static final String ONLY_ONE = "only-one";
+    public static final String REDIS_LOCK = "redis-lock";
+    public static final String ASYNC = "async";
+    public static final String LEASE = "lease";
+
+    @Value("${hmdp.seckill.engine.default:" + ASYNC + "}")
+    private String defaultEngine;
+
+    // 引擎名称 -> 引擎，按注册顺序
+    private final Map<String, SeckillEngine> engines = new LinkedHashMap<>();
+
+    private final Map<String, SeckillEngineStats> stats = new ConcurrentHashMap<>();
+
+    // 优惠券id -> 引擎名称，只包含单独指定了引擎的券
+    private final Map<Long, String> engineOfVoucher = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SeckillEngineRouter(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_ENGINE_CHANNEL));
+        Map<Object, Object> assigned = stringRedisTemplate.opsForHash().entries(RedisConstants.SECKILL_ENGINE_KEY);
+        assigned.forEach((voucherId, engine) -> engineOfVoucher.put(Long.valueOf(voucherId.toString()), engine.toString()));
+    }
+
+    /**
+     * 所有引擎注册完成后检查默认引擎，配置了不存在的引擎时启动失败
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!engines.containsKey(defaultEngine)) {
+            throw new IllegalStateException("hmdp.seckill.engine.default 配置的秒杀引擎 " + defaultEngine + " 不存在，可选：" + engines.keySet());
+        }
+    }
+
+    /**
+     * @Description: 注册秒杀引擎，启动时由各实现调用<br />
+     * @param: String name
+     * @param: SeckillEngine engine <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public synchronized void register(String name, SeckillEngine engine) {
+        engines.put(name, engine);
+        stats.put(name, new SeckillEngineStats());
+    }
+
+    /**
+     * @Description: 用该券对应的引擎秒杀，并记录统计<br />
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.dto.Result <br/>
+     * @Throws:
+     */
+    public Result seckill(Long voucherId) {
+        String name = engineOf(voucherId);
+        SeckillEngine engine = engines.get(name);
+        if (engine == null) {
+            log.error("秒杀券 {} 的秒杀引擎 {} 不存在，使用默认引擎", voucherId, name);
+            name = defaultEngine;
+            engine = engines.get(name);
+        }
+        long begin = System.nanoTime();
+        Result result = null;
+        try {
+            result = engine.seckill(voucherId);
+            return result;
+        } finally {
+            stats.get(name).record(result, System.nanoTime() - begin);
+        }
+    }
+
+    public String engineOf(Long voucherId) {
+        return engineOfVoucher.getOrDefault(voucherId, defaultEngine);
+    }
+
+    /**
+     * @Description: 指定券使用的引擎，engine 为空时恢复默认引擎，通知所有节点<br />
+     * @param: Long voucherId
+     * @param: String engine <br/>
+     * @Return: boolean 引擎是否存在 <br/>
+     * @Throws:
+     */
+    public boolean assign(Long voucherId, String engine) {
+        if (StrUtil.isBlank(engine)) {
+            stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_ENGINE_KEY, voucherId.toString());
+            engineOfVoucher.remove(voucherId);
+        } else {
+            if (!engines.containsKey(engine)) {
+                return false;
+            }
+            stringRedisTemplate.opsForHash().put(RedisConstants.SECKILL_ENGINE_KEY, voucherId.toString(), engine);
+            engineOfVoucher.put(voucherId, engine);
+        }
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_ENGINE_CHANNEL, voucherId.toString());
+        return true;
+    }
+
+    /**
+     * @Description: 各引擎的统计、默认引擎和单独指定了引擎的券<br />
+     * @param: <br/>
+     * @Return: java.util.Map<java.lang.String,java.lang.Object> <br/>
+     * @Throws:
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> engineStats = new LinkedHashMap<>();
+        engines.keySet().forEach(name -> engineStats.put(name, stats.get(name).snapshot()));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("default", defaultEngine);
+        result.put("vouchers", new LinkedHashMap<>(engineOfVoucher));
+        result.put("engines", engineStats);
+        return result;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的秒杀引擎消息：{}", message);
+            return;
+        }
+        Object engine = stringRedisTemplate.opsForHash().get(RedisConstants.SECKILL_ENGINE_KEY, voucherId.toString());
+        if (engine == null) {
+            engineOfVoucher.remove(voucherId);
+        } else {
+            engineOfVoucher.put(voucherId, engine.toString());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Description: 单个秒杀引擎的统计：请求数、成功数、售罄数、重复购买数、其他拒绝数、异常数和耗时分布（微秒）<br/>
+ * 按引擎返回的结果类型（{@link SeckillOutcome}）分类<br/>
+ * @Version 1.0
+ */
+public class SeckillEngineStats {
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder success = new LongAdder();
+    private final LongAdder soldOut = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Histogram latency = new Histogram();
+
+    /**
+     * @Description: 记录一次秒杀结果<br />
+     * @param: Result result 抛出异常时为null
+     * @param: long nanos 耗时（纳秒）<br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void record(Result result, long nanos) {
+        attempts.increment();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (result == null) {
+            errors.increment();
+            return;
+        }
+        switch (SeckillOutcome.of(result)) {
+            case SUCCESS:
+                success.increment();
+                break;
+            case SOLD_OUT:
+                soldOut.increment();
+                break;
+            case DUPLICATE:
+            case IN_PROGRESS:
+                duplicates.increment();
+                break;
+            default:
+                rejected.increment();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("attempts", attempts.sum());
+        snapshot.put("success", success.sum());
+        snapshot.put("soldOut", soldOut.sum());
+        snapshot.put("duplicates", duplicates.sum());
+        snapshot.put("rejected", rejected.sum());
+        snapshot.put("errors", errors.sum());
+        snapshot.put("latencyMicros", latency.snapshot());
+        return snapshot;
+    }
+}
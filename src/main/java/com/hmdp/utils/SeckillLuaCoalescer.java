@@ -0,0 +1,231 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description: 秒杀请求合并<br/>
+ * 把短时间窗口内（默认1毫秒或64个请求）到达的秒杀请求合并为一次 lua 调用（seckill_batch.lua），
+ * 减少 redis 处理单次调用的开销，每个请求拿回自己的结果<br/>
+ * 脚本在启动时 SCRIPT LOAD，之后通过 EVALSHA 执行；只用于未分段库存的券<br/>
+ * 排队有上限（queue-capacity），超出时直接失败；调用方等待超时时，还没被取走执行的请求被撤销，不会再扣减库存，
+ * 已经在执行的请求则等待执行结果，保证返回给用户的结果与 redis 中一致<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillLuaCoalescer {
+
+    private static final DefaultRedisScript<List> BATCH_SCRIPT;
+
+    // 调用方等待请求被执行的最长时间（秒）
+    private static final long RESULT_TIMEOUT = 5;
+
+    static {
+        BATCH_SCRIPT = new DefaultRedisScript<>();
+        BATCH_SCRIPT.setLocation(new ClassPathResource("/lua/seckill_batch.lua"));
+        BATCH_SCRIPT.setResultType(List.class);
+    }
+
+    @Value("${hmdp.seckill.coalesce.enabled:false}")
+    private boolean enabled;
+
+    // 合并窗口（微秒）
+    @Value("${hmdp.seckill.coalesce.window-micros:1000}")
+    private long windowMicros;
+
+    // 每次合并的最大请求数
+    @Value("${hmdp.seckill.coalesce.max-batch:64}")
+    private int maxBatch;
+
+    // 并发执行合并调用的线程数
+    @Value("${hmdp.seckill.coalesce.threads:2}")
+    private int threads;
+
+    // 排队等待合并的最大请求数
+    @Value("${hmdp.seckill.coalesce.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private BlockingQueue<Attempt> queue;
+
+    private final List<Thread> dispatchers = new ArrayList<>();
+
+    private volatile boolean running = false;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillBuyerTracker buyerTracker;
+
+    public SeckillLuaCoalescer(StringRedisTemplate stringRedisTemplate, SeckillBuyerTracker buyerTracker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.buyerTracker = buyerTracker;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        // 预加载脚本，之后 EVALSHA 直接命中
+        stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.scriptLoad(BATCH_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::dispatch, "seckill-coalescer-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            dispatchers.add(thread);
+        }
+        log.info("秒杀请求合并已开启，windowMicros={}, maxBatch={}, threads={}", windowMicros, maxBatch, threads);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        dispatchers.forEach(Thread::interrupt);
+        if (queue != null) {
+            // 还没执行的请求直接失败，避免调用方一直等待
+            List<Attempt> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            fail(rest, new IllegalStateException("秒杀请求合并已停止"));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @Description: 提交一次秒杀，等待合并执行的结果，返回值与 seckill.lua 相同<br />
+     * @param: Long voucherId
+     * @param: Long userId
+     * @param: long orderId <br/>
+     * @Return: java.lang.Long <br/>
+     * @Throws:
+     */
+    public Long seckill(Long voucherId, Long userId, long orderId) {
+        Attempt attempt = new Attempt(voucherId.toString(), userId.toString(), String.valueOf(orderId));
+        if (!queue.offer(attempt)) {
+            throw new RuntimeException("秒杀请求合并队列已满");
+        }
+        try {
+            try {
+                return attempt.result.get(RESULT_TIMEOUT, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // 还没被取走执行，撤销后不会再扣减库存
+                if (attempt.cancel()) {
+                    queue.remove(attempt);
+                    throw new RuntimeException("秒杀请求合并等待超时", e);
+                }
+                // 已经在执行，等待 lua 的结果（redis 命令本身有超时）
+                return attempt.result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            attempt.cancel();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("秒杀请求合并执行失败", e);
+        }
+    }
+
+    private void dispatch() {
+        List<Attempt> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                // 1.等待第一个请求，跳过调用方已放弃的请求
+                Attempt first = queue.take();
+                if (!first.dispatch()) {
+                    continue;
+                }
+                batch.add(first);
+                // 2.在窗口内继续收集，直到达到最大数量
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+                while (batch.size() < maxBatch) {
+                    Attempt attempt = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (attempt == null) {
+                        break;
+                    }
+                    if (attempt.dispatch()) {
+                        batch.add(attempt);
+                    }
+                }
+                // 3.一次执行，分发结果
+                execute(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // 已取出但没有执行的请求直接失败
+                fail(batch, e);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void execute(List<Attempt> batch) {
+        List<String> args = new ArrayList<>(batch.size() * 3 + 2);
+        args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.SECKILL_ORDER_STATUS_TTL)));
+        args.add(String.valueOf(buyerTracker.getShardBits()));
+        for (Attempt attempt : batch) {
+            args.add(attempt.voucherId);
+            args.add(attempt.userId);
+            args.add(attempt.orderId);
+        }
+        try {
+            List<?> results = stringRedisTemplate.execute(
+                    BATCH_SCRIPT,
+                    Arrays.asList(RedisConstants.SECKILL_STOCK_KEY, RedisConstants.SECKILL_ORDER_KEY, RedisConstants.SECKILL_STREAM_KEY,
+                            RedisConstants.SECKILL_SOLD_OUT_CHANNEL, RedisConstants.SECKILL_ORDER_STATUS_KEY, RedisConstants.SECKILL_BUYER_BITMAP_KEY),
+                    args.toArray()
+            );
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(((Number) results.get(i)).longValue());
+            }
+        } catch (Exception e) {
+            fail(batch, e);
+        }
+    }
+
+    private static void fail(List<Attempt> attempts, Exception e) {
+        attempts.forEach(attempt -> attempt.result.completeExceptionally(e));
+    }
+
+    private static class Attempt {
+        final String voucherId;
+        final String userId;
+        final String orderId;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        // 0排队中，1已取走执行，2调用方已放弃
+        final AtomicInteger state = new AtomicInteger();
+
+        Attempt(String voucherId, String userId, String orderId) {
+            this.voucherId = voucherId;
+            this.userId = userId;
+            this.orderId = orderId;
+        }
+
+        boolean dispatch() {
+            return state.compareAndSet(0, 1);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(0, 2);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * @Description: 异步秒杀订单的状态记录<br/>
+ * 每个订单一个小 hash（seckill:status:{orderId} -> status、userId），秒杀成功时写入 queued，
+ * 订单落库后写入 persisted，放弃处理时写入 failed，30分钟后过期<br/>
+ * 状态变化通过 redis 频道广播，各节点唤醒本地长轮询等待该订单的请求，不用反复查询<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillOrderStatusTracker implements MessageListener {
+
+    public static final String QUEUED = "queued";
+    public static final String PERSISTED = "persisted";
+    public static final String FAILED = "failed";
+
+    // 长轮询最长等待时间（毫秒）
+    private static final long MAX_WAIT = TimeUnit.SECONDS.toMillis(30);
+
+    // 订单id -> 等待该订单状态变化的请求
+    private final Map<Long, List<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SeckillOrderStatusTracker(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * @Description: 记录订单已进入队列（lua 脚本中已原子写入的不需要调用）<br />
+     * @param: Long orderId
+     * @param: Long userId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void markQueued(Long orderId, Long userId) {
+        String key = RedisConstants.SECKILL_ORDER_STATUS_KEY + orderId;
+        Map<String, String> status = new HashMap<>(2);
+        status.put("status", QUEUED);
+        status.put("userId", userId.toString());
+        stringRedisTemplate.opsForHash().putAll(key, status);
+        stringRedisTemplate.expire(key, RedisConstants.SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @Description: 记录一批订单已落库并通知各节点<br />
+     * @param: List<VoucherOrder> voucherOrders <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void markPersisted(List<VoucherOrder> voucherOrders) {
+        mark(voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList()), PERSISTED);
+    }
+
+    /**
+     * @Description: 记录订单处理失败并通知各节点<br />
+     * @param: Long orderId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void markFailed(Long orderId) {
+        mark(Collections.singletonList(orderId), FAILED);
+    }
+
+    private void mark(List<Long> orderIds, String status) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (Long orderId : orderIds) {
+                String key = RedisConstants.SECKILL_ORDER_STATUS_KEY + orderId;
+                stringConnection.hSet(key, "status", status);
+                stringConnection.expire(key, TimeUnit.MINUTES.toSeconds(RedisConstants.SECKILL_ORDER_STATUS_TTL));
+            }
+            return null;
+        });
+        // 消息格式：status:id1,id2,...
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_ORDER_STATUS_CHANNEL, status + ":" + StrUtil.join(",", orderIds));
+    }
+
+    /**
+     * @Description: 查询订单状态，只能查询自己的订单<br />
+     * @param: Long orderId
+     * @param: Long userId
+     * @param: Supplier<VoucherOrder> doQuery 状态记录过期后从数据库查询 <br/>
+     * @Return: java.lang.String 订单状态，订单不存在返回null <br/>
+     * @Throws:
+     */
+    public String getStatus(Long orderId, Long userId, Supplier<VoucherOrder> doQuery) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(
+                RedisConstants.SECKILL_ORDER_STATUS_KEY + orderId, Arrays.asList("status", "userId"));
+        Object status = values.get(0);
+        if (status != null) {
+            return userId.toString().equals(values.get(1)) ? status.toString() : null;
+        }
+        // 状态记录已过期，以数据库为准
+        VoucherOrder voucherOrder = doQuery.get();
+        return voucherOrder != null && userId.equals(voucherOrder.getUserId()) ? PERSISTED : null;
+    }
+
+    /**
+     * @Description: 长轮询订单状态：订单还在队列中时最多等待 timeout 毫秒，状态变化时立即返回<br />
+     * @param: Long orderId
+     * @param: Long userId
+     * @param: long timeout
+     * @param: Supplier<VoucherOrder> doQuery <br/>
+     * @Return: org.springframework.web.context.request.async.DeferredResult<com.hmdp.dto.Result> <br/>
+     * @Throws:
+     */
+    public DeferredResult<Result> awaitStatus(Long orderId, Long userId, long timeout, Supplier<VoucherOrder> doQuery) {
+        timeout = Math.max(0, Math.min(timeout, MAX_WAIT));
+        DeferredResult<Result> deferredResult = new DeferredResult<>(timeout);
+        if (timeout > 0) {
+            // 先登记再查询，避免查询之后、登记之前的状态变化被错过
+            waiters.computeIfAbsent(orderId, id -> new CopyOnWriteArrayList<>()).add(deferredResult);
+            deferredResult.onCompletion(() -> removeWaiter(orderId, deferredResult));
+            deferredResult.onTimeout(() -> deferredResult.setResult(toResult(orderId, getStatus(orderId, userId, doQuery))));
+        }
+        String status = getStatus(orderId, userId, doQuery);
+        if (status == null || !QUEUED.equals(status) || timeout == 0) {
+            deferredResult.setResult(toResult(orderId, status));
+        }
+        return deferredResult;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.indexOf(':');
+        if (index < 0) {
+            return;
+        }
+        String status = body.substring(0, index);
+        for (String id : StrUtil.split(body.substring(index + 1), ',')) {
+            List<DeferredResult<Result>> list = waiters.remove(Long.valueOf(id));
+            if (list == null) {
+                continue;
+            }
+            // 等待的请求已经校验过订单归属
+            for (DeferredResult<Result> deferredResult : list) {
+                deferredResult.setResult(toResult(Long.valueOf(id), status));
+            }
+        }
+    }
+
+    private void removeWaiter(Long orderId, DeferredResult<Result> deferredResult) {
+        waiters.computeIfPresent(orderId, (id, list) -> {
+            list.remove(deferredResult);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    private static Result toResult(Long orderId, String status) {
+        if (status == null) {
+            return Result.fail("订单不存在");
+        }
+        Map<String, Object> data = new HashMap<>(2);
+        data.put("orderId", orderId.toString());
+        data.put("status", status);
+        return Result.ok(data);
+    }
+}
@@ -0,0 +1,49 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+
+/**
+ * @Description: 秒杀结果的类型，秒杀引擎返回带类型的结果（{@link SeckillResult}），统计按类型分类，不依赖提示文字<br/>
+ * @Version 1.0
+ */
+public enum SeckillOutcome {
+    // 成功
+    SUCCESS(null),
+    // 库存不足
+    SOLD_OUT(SystemConstants.SECKILL_SOLD_OUT_MSG),
+    // 已经购买过
+    DUPLICATE(SystemConstants.SECKILL_DUPLICATE_MSG),
+    // 同一用户的另一个请求正在处理
+    IN_PROGRESS(SystemConstants.SECKILL_IN_PROGRESS_MSG),
+    // 本节点锁等待超时（不同用户可能共用一把分段锁），可以重试
+    BUSY(SystemConstants.SECKILL_BUSY_MSG),
+    // 其他原因拒绝（券不存在、未开始、已结束等），提示文字由调用方给出
+    REJECTED(null);
+
+    private final String message;
+
+    SeckillOutcome(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 该类型的失败结果，使用默认提示文字
+     */
+    public Result toResult() {
+        return new SeckillResult(this, message);
+    }
+
+    /**
+     * 从秒杀结果中取出类型，不是 SeckillResult 时按是否成功区分
+     */
+    public static SeckillOutcome of(Result result) {
+        if (result instanceof SeckillResult) {
+            return ((SeckillResult) result).getOutcome();
+        }
+        return Boolean.TRUE.equals(result.getSuccess()) ? SUCCESS : REJECTED;
+    }
+}
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.hmdp.dto.Result;
+
+/**
+ * @Description: 带类型的秒杀失败结果，类型只在服务端使用，不返回给前端<br/>
+ * @Version 1.0
+ */
+public class SeckillResult extends Result {
+
+    @JsonIgnore
+    private final SeckillOutcome outcome;
+
+    SeckillResult(SeckillOutcome outcome, String errorMsg) {
+        super(false, errorMsg, null, null);
+        this.outcome = outcome;
+    }
+
+    public SeckillOutcome getOutcome() {
+        return outcome;
+    }
+}
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Description: 本地售罄标记<br/>
+ * lua 脚本把库存扣到 0 时通过 redis 频道广播，各节点收到后在本地记录，
+ * 之后该券的秒杀请求直接在进程内拒绝，不再查询数据库和执行 lua 脚本<br/>
+ * 库存恢复（预热、补偿）时广播 restock 清除标记<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    private final Set<Long> soldOutVoucherIds = ConcurrentHashMap.newKeySet();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SeckillSoldOutRegistry(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_RESTOCK_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOutVoucherIds.contains(voucherId);
+    }
+
+    /**
+     * @Description: 只在本节点标记售罄（lua 返回库存不足但没收到广播时补记）<br />
+     * @param: Long voucherId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void markSoldOut(Long voucherId) {
+        soldOutVoucherIds.add(voucherId);
+    }
+
+    /**
+     * @Description: 通知所有节点该券已售罄（分段库存等不在lua中广播的场景）<br />
+     * @param: Long voucherId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void publishSoldOut(Long voucherId) {
+        soldOutVoucherIds.add(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * @Description: 通知所有节点该券已恢复库存<br />
+     * @param: Long voucherId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void publishRestock(Long voucherId) {
+        soldOutVoucherIds.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的售罄消息：{}", message);
+            return;
+        }
+        if (RedisConstants.SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOutVoucherIds.add(voucherId);
+        } else {
+            soldOutVoucherIds.remove(voucherId);
+        }
+    }
+}
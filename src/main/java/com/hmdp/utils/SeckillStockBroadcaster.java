@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Description: 秒杀券剩余库存推送（server-sent events）<br/>
+ * 客户端订阅某张券后，本节点按固定间隔（hmdp.seckill.stock-push.interval-ms，默认500毫秒）统一读取一次有订阅的券的 redis 库存，
+ * 库存变化时推送给所有订阅者；无论有多少人抢购、多少人订阅，每张券每个间隔最多一次 redis 读取、一次推送<br/>
+ * 分段库存推送各分段之和；租借模式下不包含节点已租借但未售出的库存<br/>
+ * 定时任务只读取库存，发送交给 stockPushExecutor；同一订阅者同时只有一次发送，上一次还没完成时跳过本次，
+ * 一次发送超过 slow-send-ms 的订阅者不再推送（连接超时后关闭，客户端重连）<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillStockBroadcaster {
+
+    // 连接最长保持时间，超时后客户端（EventSource）会自动重连
+    private static final long EMITTER_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    // 库存没有变化时，每隔多少个间隔发送一次，用于检测断开的连接
+    private static final int HEARTBEAT_TICKS = 30;
+
+    // 一次发送超过该时间（毫秒）视为慢客户端，不再推送
+    private static final long SLOW_SEND_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    // 优惠券id -> 订阅者
+    private final Map<Long, Channel> channels = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillVoucherCache seckillVoucherCache;
+
+    private final ThreadPoolTaskExecutor stockPushExecutor;
+
+    public SeckillStockBroadcaster(StringRedisTemplate stringRedisTemplate, SeckillVoucherCache seckillVoucherCache,
+                                   @Qualifier("stockPushExecutor") ThreadPoolTaskExecutor stockPushExecutor) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherCache = seckillVoucherCache;
+        this.stockPushExecutor = stockPushExecutor;
+    }
+
+    /**
+     * @Description: 订阅秒杀券的剩余库存，立即推送当前库存<br />
+     * @param: Long voucherId <br/>
+     * @Return: org.springframework.web.servlet.mvc.method.annotation.SseEmitter 秒杀券不存在时返回null <br/>
+     * @Throws:
+     */
+    public SseEmitter subscribe(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherCache.get(voucherId);
+        if (voucher == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT);
+        Subscriber subscriber = new Subscriber(emitter);
+        // 登记和清理空频道都在 compute 中执行，避免登记到刚被移除的频道上
+        Channel channel = channels.compute(voucherId, (id, current) -> {
+            if (current == null) {
+                current = new Channel();
+            }
+            current.subscribers.add(subscriber);
+            return current;
+        });
+        emitter.onCompletion(() -> channel.subscribers.remove(subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> channel.subscribers.remove(subscriber));
+
+        Long stock = channel.lastStock;
+        if (stock == null) {
+            stock = readStock(voucher);
+        }
+        // 处理器返回之前的发送只写入缓冲，不会阻塞
+        send(channel, subscriber, stock);
+        return emitter;
+    }
+
+    /**
+     * 每个间隔读取一次有订阅者的券的库存，有变化时交给推送线程池发送
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stock-push.interval-ms:500}")
+    public void push() {
+        channels.forEach((voucherId, channel) -> {
+            if (channel.subscribers.isEmpty()) {
+                channels.computeIfPresent(voucherId, (id, current) -> current.subscribers.isEmpty() ? null : current);
+                return;
+            }
+            SeckillVoucher voucher = seckillVoucherCache.get(voucherId);
+            if (voucher == null) {
+                return;
+            }
+            Long stock;
+            try {
+                stock = readStock(voucher);
+            } catch (Exception e) {
+                log.warn("读取秒杀券 {} 库存失败", voucherId, e);
+                return;
+            }
+            boolean changed = !stock.equals(channel.lastStock);
+            if (!changed && ++channel.idleTicks < HEARTBEAT_TICKS) {
+                return;
+            }
+            channel.idleTicks = 0;
+            channel.lastStock = stock;
+            for (Subscriber subscriber : channel.subscribers) {
+                sendAsync(channel, subscriber, stock);
+            }
+        });
+    }
+
+    private void sendAsync(Channel channel, Subscriber subscriber, Long stock) {
+        if (!subscriber.pending.compareAndSet(false, true)) {
+            long sendingSince = subscriber.sendingSince;
+            if (sendingSince > 0 && System.currentTimeMillis() - sendingSince > SLOW_SEND_MILLIS) {
+                // 慢客户端：不再推送，发送线程阻塞在 send 上，这里不调用 complete
+                channel.subscribers.remove(subscriber);
+                log.debug("秒杀库存订阅者发送超过 {} ms，不再推送", SLOW_SEND_MILLIS);
+            }
+            // 上一次发送还没完成，跳过本次
+            return;
+        }
+        try {
+            stockPushExecutor.execute(() -> {
+                subscriber.sendingSince = System.currentTimeMillis();
+                try {
+                    send(channel, subscriber, stock);
+                } finally {
+                    subscriber.sendingSince = 0;
+                    subscriber.pending.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 推送线程池繁忙，等下一次推送
+            subscriber.pending.set(false);
+        }
+    }
+
+    private Long readStock(SeckillVoucher voucher) {
+        Long voucherId = voucher.getVoucherId();
+        int segments = voucher.getStockSegments() == null ? 1 : voucher.getStockSegments();
+        List<String> keys = new ArrayList<>(segments);
+        if (segments > 1) {
+            for (int i = 0; i < segments; i++) {
+                keys.add(SeckillStockSegments.stockKey(voucherId, i));
+            }
+        } else {
+            keys.add(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        long stock = 0;
+        if (values != null) {
+            for (String value : values) {
+                if (value != null) {
+                    stock += Math.max(0, Long.parseLong(value));
+                }
+            }
+        }
+        return stock;
+    }
+
+    private void send(Channel channel, Subscriber subscriber, Long stock) {
+        try {
+            subscriber.emitter.send(SseEmitter.event().name("stock").data(stock));
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开
+            channel.subscribers.remove(subscriber);
+        }
+    }
+
+    private static class Subscriber {
+        final SseEmitter emitter;
+        // 已提交、尚未完成发送
+        final AtomicBoolean pending = new AtomicBoolean();
+        // 开始发送的时间，没有在发送时为0
+        volatile long sendingSince;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+
+    private static class Channel {
+        final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        // 只由推送线程修改
+        volatile Long lastStock;
+        int idleTicks;
+    }
+}
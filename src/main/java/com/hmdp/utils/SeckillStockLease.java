@@ -0,0 +1,208 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Description: 节点本地租借库存<br/>
+ * 节点从 redis 库存中一次租借一批（默认50件），在本地用原子计数扣减，库存判断和售罄拒绝都在进程内完成，
+ * 只有租借、归还时访问 redis 库存；一人一单仍由 redis 集合（或位图）保证<br/>
+ * 租借的库存闲置一段时间或秒杀结束后归还 redis，并通知各节点清除售罄标记，让其他节点可以继续租借<br/>
+ * 已租借、尚未售出的库存记录在 seckill:leased:{voucherId}，租借、售出、归还时在 lua 中与库存一起更新，对账时据此区分租借和偏差<br/>
+ * 只用于未分段库存的券<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillStockLease {
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    private static final DefaultRedisScript<Long> RETURN_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("/lua/stock_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("/lua/seckill_lease.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+
+        RETURN_SCRIPT = new DefaultRedisScript<>();
+        RETURN_SCRIPT.setLocation(new ClassPathResource("/lua/stock_return.lua"));
+        RETURN_SCRIPT.setResultType(Long.class);
+    }
+
+    // 每次租借的数量
+    @Value("${hmdp.seckill.lease.chunk:50}")
+    private int chunk;
+
+    // 租借的库存闲置超过该时间（毫秒）后归还
+    @Value("${hmdp.seckill.lease.idle-ms:10000}")
+    private long idleMillis;
+
+    // 优惠券id -> 本节点租借的库存
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    private final SeckillVoucherCache seckillVoucherCache;
+
+    private final SeckillBuyerTracker buyerTracker;
+
+    public SeckillStockLease(StringRedisTemplate stringRedisTemplate, SeckillSoldOutRegistry soldOutRegistry, SeckillVoucherCache seckillVoucherCache, SeckillBuyerTracker buyerTracker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutRegistry = soldOutRegistry;
+        this.seckillVoucherCache = seckillVoucherCache;
+        this.buyerTracker = buyerTracker;
+    }
+
+    /**
+     * @Description: 从本地租借的库存中扣减并写入订单消息，返回值与 seckill.lua 相同：0成功，1库存不足，2重复购买，3库存未预热<br />
+     * @param: Long voucherId
+     * @param: Long userId
+     * @param: long orderId <br/>
+     * @Return: java.lang.Long <br/>
+     * @Throws:
+     */
+    public Long seckill(Long voucherId, Long userId, long orderId) {
+        // 1.本地扣减，租借的库存用完时再租借一批
+        Lease lease = leases.computeIfAbsent(voucherId, id -> new Lease());
+        long acquired = acquire(voucherId, lease);
+        if (acquired != 0L) {
+            return acquired;
+        }
+
+        // 2.在 redis 中判断一人一单并发送订单消息，重复购买时把库存还给本地
+        Long result;
+        try {
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(RedisConstants.SECKILL_ORDER_KEY, RedisConstants.SECKILL_STREAM_KEY, RedisConstants.SECKILL_ORDER_STATUS_KEY,
+                            RedisConstants.SECKILL_BUYER_BITMAP_KEY, RedisConstants.SECKILL_LEASED_KEY),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId),
+                    String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.SECKILL_ORDER_STATUS_TTL)),
+                    String.valueOf(buyerTracker.getShardBits())
+            );
+        } catch (RuntimeException e) {
+            lease.remaining.incrementAndGet();
+            throw e;
+        }
+        if (result != 0L) {
+            lease.remaining.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * 从本地库存扣减一件：成功返回0，库存不足返回1，库存未预热返回3
+     */
+    private long acquire(Long voucherId, Lease lease) {
+        lease.lastUsed = System.currentTimeMillis();
+        while (true) {
+            if (decrement(lease.remaining)) {
+                return 0L;
+            }
+            // 只让一个线程去租借，其他线程等待后重新扣减
+            synchronized (lease) {
+                if (lease.remaining.get() > 0) {
+                    continue;
+                }
+                Long taken = stringRedisTemplate.execute(
+                        LEASE_SCRIPT,
+                        Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + voucherId, RedisConstants.SECKILL_LEASED_KEY + voucherId),
+                        String.valueOf(chunk)
+                );
+                if (taken == null || taken < 0) {
+                    return 3L;
+                }
+                if (taken == 0) {
+                    // redis 中已无库存，其他节点可能还有租借的库存，只在本节点标记售罄，有节点归还时会清除
+                    soldOutRegistry.markSoldOut(voucherId);
+                    return 1L;
+                }
+                lease.remaining.addAndGet(taken.intValue());
+            }
+        }
+    }
+
+    private static boolean decrement(AtomicInteger remaining) {
+        int current;
+        do {
+            current = remaining.get();
+            if (current <= 0) {
+                return false;
+            }
+        } while (!remaining.compareAndSet(current, current - 1));
+        return true;
+    }
+
+    /**
+     * 归还闲置或秒杀已结束的租借库存
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void returnIdleLeases() {
+        long now = System.currentTimeMillis();
+        leases.forEach((voucherId, lease) -> {
+            SeckillVoucher voucher = seckillVoucherCache.get(voucherId);
+            boolean ended = voucher == null || voucher.getEndTime().isBefore(LocalDateTime.now());
+            if (ended || now - lease.lastUsed > idleMillis) {
+                giveBack(voucherId, lease, !ended);
+            }
+            if (ended) {
+                leases.remove(voucherId, lease);
+            }
+        });
+    }
+
+    /**
+     * 停止时归还所有租借的库存
+     */
+    @PreDestroy
+    public void returnAll() {
+        leases.forEach((voucherId, lease) -> giveBack(voucherId, lease, true));
+    }
+
+    private void giveBack(Long voucherId, Lease lease, boolean notify) {
+        int remaining;
+        synchronized (lease) {
+            remaining = lease.remaining.getAndSet(0);
+            if (remaining <= 0) {
+                return;
+            }
+            stringRedisTemplate.execute(
+                    RETURN_SCRIPT,
+                    Arrays.asList(RedisConstants.SECKILL_STOCK_KEY + voucherId, RedisConstants.SECKILL_LEASED_KEY + voucherId),
+                    String.valueOf(remaining)
+            );
+        }
+        log.debug("秒杀券 {} 归还租借的库存 {}", voucherId, remaining);
+        if (notify) {
+            soldOutRegistry.publishRestock(voucherId);
+        }
+    }
+
+    private static class Lease {
+        final AtomicInteger remaining = new AtomicInteger();
+        volatile long lastUsed = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Description: 分段库存<br/>
+ * 热门秒杀券的库存拆分到 N 个带 hash tag 的分段key（seckill:stock:{voucherId:segment}）上，
+ * 集群模式下分散到不同分片，避免单个热key成为瓶颈<br/>
+ * 用户按 userId 哈希固定落在一个分段，一人一单的集合也在该分段上，所以一人一单仍然全局正确；
+ * 所属分段库存不足时依次到其他分段扣减<br/>
+ * 分段之间不在同一个slot，订单消息无法在lua中原子写入，扣减成功后由java写入消息队列，写入失败时回滚库存和名额<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillStockSegments {
+
+    private static final DefaultRedisScript<Long> SEGMENT_SCRIPT;
+
+    private static final DefaultRedisScript<Long> FALLBACK_SCRIPT;
+
+    static {
+        SEGMENT_SCRIPT = new DefaultRedisScript<>();
+        SEGMENT_SCRIPT.setLocation(new ClassPathResource("/lua/seckill_segment.lua"));
+        SEGMENT_SCRIPT.setResultType(Long.class);
+
+        FALLBACK_SCRIPT = new DefaultRedisScript<>();
+        FALLBACK_SCRIPT.setLocation(new ClassPathResource("/lua/seckill_segment_fallback.lua"));
+        FALLBACK_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillOrderStatusTracker orderStatusTracker;
+
+    public SeckillStockSegments(StringRedisTemplate stringRedisTemplate, SeckillOrderStatusTracker orderStatusTracker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.orderStatusTracker = orderStatusTracker;
+    }
+
+    public static String stockKey(Long voucherId, int segment) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+
+    public static String orderKey(Long voucherId, int segment) {
+        return RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+
+    /**
+     * @Description: 用户所属的分段<br />
+     * @param: Long userId
+     * @param: int segments <br/>
+     * @Return: int <br/>
+     * @Throws:
+     */
+    public static int segmentOf(Long userId, int segments) {
+        return Math.floorMod(userId.hashCode(), segments);
+    }
+
+    /**
+     * @Description: 把库存平均分配到各分段（余数分给前几个分段），并记录分段数<br />
+     * @param: Long voucherId
+     * @param: int stock
+     * @param: int segments <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void allocate(Long voucherId, int stock, int segments) {
+        Map<String, String> stockOfSegment = new HashMap<>(segments);
+        for (int i = 0; i < segments; i++) {
+            int segmentStock = stock / segments + (i < stock % segments ? 1 : 0);
+            stockOfSegment.put(stockKey(voucherId, i), String.valueOf(segmentStock));
+        }
+        // 各分段key不在同一个slot，逐个写入
+        stockOfSegment.forEach((key, value) -> stringRedisTemplate.opsForValue().set(key, value));
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_SEGMENTS_KEY + voucherId, String.valueOf(segments));
+    }
+
+    /**
+     * @Description: 分段扣减库存并写入订单消息，返回值与 seckill.lua 相同：0成功，1库存不足，2重复购买，3库存未预热<br />
+     * 只有所有分段的库存key都存在且都不足时才返回1，有分段key不存在（未预热或被清除）时返回3<br />
+     * @param: Long voucherId
+     * @param: Long userId
+     * @param: long orderId
+     * @param: int segments <br/>
+     * @Return: java.lang.Long <br/>
+     * @Throws:
+     */
+    public Long seckill(Long voucherId, Long userId, long orderId, int segments) {
+        int home = segmentOf(userId, segments);
+        String orderKey = orderKey(voucherId, home);
+
+        // 1.在所属分段判断一人一单、占用名额并尝试扣减库存
+        Long result = stringRedisTemplate.execute(
+                SEGMENT_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey),
+                userId.toString()
+        );
+        if (result == 2L || result == 3L) {
+            // 重复购买，或所属分段未预热（此时没有占用名额）
+            return result;
+        }
+
+        // 2.所属分段库存不足（返回4），依次到其他分段扣减
+        int taken = result == 0L ? home : -1;
+        boolean missing = false;
+        for (int i = 1; taken < 0 && i < segments; i++) {
+            int segment = (home + i) % segments;
+            Long fallback = stringRedisTemplate.execute(FALLBACK_SCRIPT, Collections.singletonList(stockKey(voucherId, segment)));
+            if (fallback == 0L) {
+                taken = segment;
+            } else if (fallback == 3L) {
+                missing = true;
+            }
+        }
+        if (taken < 0) {
+            // 没有扣减到库存，释放名额；有分段未预热时不能判定为售罄
+            stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            return missing ? 3L : 1L;
+        }
+
+        // 3.记录订单状态（先于消息写入，避免覆盖写入器记录的已落库状态），写入订单消息，失败时回滚库存和名额
+        try {
+            orderStatusTracker.markQueued(orderId, userId);
+            Map<String, String> order = new HashMap<>(4);
+            order.put("userId", userId.toString());
+            order.put("voucherId", voucherId.toString());
+            order.put("id", String.valueOf(orderId));
+            stringRedisTemplate.opsForStream().add(StreamRecords.string(order).withStreamKey(RedisConstants.SECKILL_STREAM_KEY));
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForValue().increment(stockKey(voucherId, taken));
+            stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            orderStatusTracker.markFailed(orderId);
+            throw e;
+        }
+        return 0L;
+    }
+}
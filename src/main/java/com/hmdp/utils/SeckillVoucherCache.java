@@ -0,0 +1,204 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * @Description: 秒杀券元数据（是否存在、生效时间、失效时间、优惠券类型）的本地缓存<br/>
+ * 启动时预加载未结束的秒杀券，新增秒杀券时通过 redis 频道通知各节点重新加载，并定时全量刷新兜底，
+ * 秒杀请求据此判断券是否存在、是否是秒杀券、是否在秒杀时间内，不再查询数据库；抽签券也在此缓存，由调用方按类型区分<br/>
+ * 全量刷新时整体替换，已结束、已删除的券随之移除<br/>
+ * 同时缓存库存分段数（数据库中保存）；库存不在此缓存，以 redis 为准<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class SeckillVoucherCache implements MessageListener {
+
+    // 不存在的券的缓存时间（毫秒），防止用不存在的id反复查询数据库
+    private static final long ABSENT_TTL = TimeUnit.SECONDS.toMillis(10);
+
+    // 不存在的券最多缓存的个数
+    private static final int MAX_ABSENT_SIZE = 10000;
+
+    private volatile Map<Long, SeckillVoucher> vouchers = new ConcurrentHashMap<>();
+
+    // 全量刷新期间收到变更通知的券id，刷新完成后重新加载，避免被刷新前查询到的旧数据覆盖
+    private volatile Set<Long> changedDuringReload;
+
+    // 不存在的券id -> 过期时间
+    private final Map<Long, Long> absentVoucherIds = new ConcurrentHashMap<>();
+
+    private final ISeckillVoucherService seckillVoucherService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final VoucherMapper voucherMapper;
+
+    public SeckillVoucherCache(ISeckillVoucherService seckillVoucherService, StringRedisTemplate stringRedisTemplate,
+                               RedisMessageListenerContainer listenerContainer, VoucherMapper voucherMapper) {
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherMapper = voucherMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_VOUCHER_CHANNEL));
+        reload();
+    }
+
+    /**
+     * @Description: 全量加载未结束的秒杀券，启动时执行，之后每10分钟兜底刷新一次（防止丢失变更通知）<br />
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    @Scheduled(initialDelay = 10 * 60 * 1000, fixedDelay = 10 * 60 * 1000)
+    public synchronized void reload() {
+        Set<Long> changed = ConcurrentHashMap.newKeySet();
+        changedDuringReload = changed;
+        Map<Long, SeckillVoucher> fresh = new ConcurrentHashMap<>();
+        try {
+            List<SeckillVoucher> list = seckillVoucherService.query()
+                    .select("voucher_id", "stock_segments", "begin_time", "end_time")
+                    .gt("end_time", LocalDateTime.now())
+                    .list();
+            if (!list.isEmpty()) {
+                // 批量读取优惠券类型
+                Map<Long, Integer> types = voucherMapper.selectList(new QueryWrapper<Voucher>()
+                                .select("id", "type")
+                                .in("id", list.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList())))
+                        .stream()
+                        .collect(Collectors.toMap(Voucher::getId, Voucher::getType));
+                for (SeckillVoucher voucher : list) {
+                    voucher.setStockSegments(normalizeSegments(voucher.getStockSegments()));
+                    voucher.setType(types.get(voucher.getVoucherId()));
+                    fresh.put(voucher.getVoucherId(), voucher);
+                }
+            }
+            // 整体替换，已结束、已删除的券不再保留
+            vouchers = fresh;
+            absentVoucherIds.clear();
+            log.info("加载秒杀券元数据 {} 条", fresh.size());
+        } finally {
+            changedDuringReload = null;
+        }
+        for (Long voucherId : changed) {
+            fresh.remove(voucherId);
+            load(voucherId);
+        }
+    }
+
+    /**
+     * @Description: 获取秒杀券（只包含 voucherId、beginTime、endTime、stockSegments、type），不存在返回null<br />
+     * 本地没有时查询一次数据库，不存在的id会短暂缓存<br />
+     * @param: Long voucherId <br/>
+     * @Return: com.hmdp.entity.SeckillVoucher <br/>
+     * @Throws:
+     */
+    public SeckillVoucher get(Long voucherId) {
+        SeckillVoucher voucher = vouchers.get(voucherId);
+        if (voucher != null) {
+            return voucher;
+        }
+        Long absentExpire = absentVoucherIds.get(voucherId);
+        if (absentExpire != null && absentExpire > System.currentTimeMillis()) {
+            return null;
+        }
+        return load(voucherId);
+    }
+
+    /**
+     * @Description: 秒杀券新增或修改后调用，在事务提交后通知所有节点（包括本节点）重新加载<br />
+     * @param: Long voucherId <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void publishChange(Long voucherId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+                }
+            });
+        } else {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_VOUCHER_CHANNEL, voucherId.toString());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+            Set<Long> changed = changedDuringReload;
+            if (changed != null) {
+                changed.add(voucherId);
+            }
+            vouchers.remove(voucherId);
+            load(voucherId);
+        } catch (Exception e) {
+            log.warn("处理秒杀券变更消息失败：{}", message, e);
+        }
+    }
+
+    private SeckillVoucher load(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.query()
+                .select("voucher_id", "stock_segments", "begin_time", "end_time")
+                .eq("voucher_id", voucherId)
+                .one();
+        if (voucher == null) {
+            if (absentVoucherIds.size() >= MAX_ABSENT_SIZE) {
+                absentVoucherIds.clear();
+            }
+            absentVoucherIds.put(voucherId, System.currentTimeMillis() + ABSENT_TTL);
+            return null;
+        }
+        voucher.setStockSegments(normalizeSegments(voucher.getStockSegments()));
+        Voucher type = voucherMapper.selectOne(new QueryWrapper<Voucher>()
+                .select("id", "type")
+                .eq("id", voucherId));
+        voucher.setType(type == null ? null : type.getType());
+        absentVoucherIds.remove(voucherId);
+        vouchers.put(voucherId, voucher);
+        return voucher;
+    }
+
+    /**
+     * 是否是抽签券，抽签券只能报名，不能秒杀
+     */
+    public static boolean isLottery(SeckillVoucher voucher) {
+        return voucher.getType() != null && voucher.getType() == SystemConstants.VOUCHER_TYPE_LOTTERY;
+    }
+
+    private static int normalizeSegments(Integer segments) {
+        return segments == null || segments < 1 ? 1 : segments;
+    }
+}
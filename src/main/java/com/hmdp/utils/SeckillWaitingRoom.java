@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillTicket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * @Description: 秒杀排队室（本节点内，无网络IO）<br/>
+ * 每张券一个房间：用户第一次进入时领取递增的排队号，排队号按令牌桶的速率（rate/秒，最多积攒 burst 个）逐步放行，
+ * 同时限制同一时刻正在执行的秒杀请求数（maxConcurrent），超出的请求拿到排队号、前面的人数和建议的重试间隔<br/>
+ * 排队号按用户记录，重试时保持不变，不能通过重复请求插队<br/>
+ * 各项限制是单节点的，集群总放行速率为 节点数 * rate<br/>
+ * @Version 1.0
+ */
+@Component
+public class SeckillWaitingRoom {
+
+    // 房间空闲多久后回收（毫秒）
+    private static final long ROOM_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    // 轮到后多久（秒）没有回来的排队号作废
+    private static final long TICKET_GRACE_SECONDS = 30;
+
+    @Value("${hmdp.seckill.admission.enabled:true}")
+    private boolean enabled;
+
+    // 每张券每秒放行的排队号数
+    @Value("${hmdp.seckill.admission.rate:500}")
+    private double rate;
+
+    // 令牌桶容量，空闲时最多积攒的放行名额
+    @Value("${hmdp.seckill.admission.burst:100}")
+    private long burst;
+
+    // 每张券同时执行的最大秒杀请求数
+    @Value("${hmdp.seckill.admission.max-concurrent:200}")
+    private int maxConcurrent;
+
+    // 每张券最多排队的人数，超出后直接拒绝
+    @Value("${hmdp.seckill.admission.max-queue:100000}")
+    private int maxQueue;
+
+    private final Map<Long, Room> rooms = new ConcurrentHashMap<>();
+
+    private final SeckillSoldOutRegistry soldOutRegistry;
+
+    public SeckillWaitingRoom(SeckillSoldOutRegistry soldOutRegistry) {
+        this.soldOutRegistry = soldOutRegistry;
+    }
+
+    /**
+     * @Description: 排队执行秒杀，轮到时执行 action，否则返回排队凭证<br />
+     * @param: Long voucherId
+     * @param: Long userId
+     * @param: Supplier<Result> action <br/>
+     * @Return: com.hmdp.dto.Result <br/>
+     * @Throws:
+     */
+    public Result enter(Long voucherId, Long userId, Supplier<Result> action) {
+        // 已售罄的券不用排队
+        if (!enabled || soldOutRegistry.isSoldOut(voucherId)) {
+            return action.get();
+        }
+        Room room = rooms.computeIfAbsent(voucherId, id -> new Room());
+        long now = System.nanoTime();
+        room.lastAccess = now;
+
+        Long ticket = room.tickets.get(userId);
+        if (ticket == null) {
+            if (room.tickets.size() >= maxQueue) {
+                return Result.fail("排队人数过多，请稍后再试");
+            }
+            ticket = room.tickets.computeIfAbsent(userId, id -> room.issue());
+        }
+
+        double horizon = room.advance(now);
+        if (ticket <= horizon && room.inFlight.tryAcquire()) {
+            room.tickets.remove(userId);
+            try {
+                return action.get();
+            } finally {
+                room.inFlight.release();
+            }
+        }
+
+        // 还没轮到（或执行中的请求已满），返回排队凭证
+        long position = Math.max(0, (long) Math.ceil(ticket - horizon));
+        long retryAfter = Math.max(50, (long) Math.ceil(position * 1000 / rate));
+        return new Result(false, "排队中，请稍后重试", new SeckillTicket(voucherId, ticket, position, retryAfter), null);
+    }
+
+    /**
+     * @Description: 回收长时间空闲的房间，清理轮到后一直没回来的排队号<br />
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    @Scheduled(fixedDelay = 10 * 1000)
+    public void cleanUp() {
+        long now = System.nanoTime();
+        rooms.entrySet().removeIf(entry -> now - entry.getValue().lastAccess > TimeUnit.MILLISECONDS.toNanos(ROOM_IDLE_TIMEOUT));
+        for (Room room : rooms.values()) {
+            double expired = room.advance(now) - rate * TICKET_GRACE_SECONDS;
+            room.tickets.values().removeIf(ticket -> ticket < expired);
+        }
+    }
+
+    private class Room {
+
+        // 用户id -> 排队号
+        final Map<Long, Long> tickets = new ConcurrentHashMap<>();
+
+        final Semaphore inFlight = new Semaphore(maxConcurrent);
+
+        // 已发出的最大排队号
+        long issued = 0;
+
+        // 已放行到的排队号，按 rate 随时间增长
+        double horizon = burst;
+
+        long refillTime = System.nanoTime();
+
+        volatile long lastAccess = System.nanoTime();
+
+        synchronized long issue() {
+            return ++issued;
+        }
+
+        /**
+         * 按流逝的时间推进放行位置，最多领先已发出的排队号 burst 个（令牌桶容量）
+         */
+        synchronized double advance(long now) {
+            horizon = Math.min(issued + burst, horizon + (now - refillTime) * rate / TimeUnit.SECONDS.toNanos(1));
+            refillTime = now;
+            return horizon;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Description: 商铺id的布隆过滤器（进程内），查询不存在的商铺id时在访问 redis 和数据库之前直接拒绝<br/>
+ * 启动时按主键分页流式读取 tb_shop 构建，定期重建（清除已删除的id、按商铺数量重新计算大小）；
+ * 新增商铺时通过 redis 广播，各节点同时加入；重建期间加入的id同时写入新旧过滤器<br/>
+ * 构建完成之前不做判断，全部放行<br/>
+ * @Version 1.0
+ */
+@Slf4j
+@Component
+public class ShopBloomFilter implements MessageListener, SmartLifecycle {
+
+    // 每页读取的行数
+    private static final int PAGE_SIZE = 5000;
+
+    // 预计的商铺数量，实际数量更多时按实际数量的2倍计算大小
+    @Value("${hmdp.shop.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    // 误判率
+    @Value("${hmdp.shop.bloom.fpp:0.01}")
+    private double fpp;
+
+    private volatile Filter current;
+
+    private volatile Filter building;
+
+    private volatile boolean running = false;
+
+    private final ShopMapper shopMapper;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public ShopBloomFilter(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.shopMapper = shopMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @Override
+    public void start() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SHOP_BLOOM_CHANNEL));
+        try {
+            rebuild();
+        } catch (Exception e) {
+            // 构建失败不阻止启动，构建完成之前全部放行
+            log.error("商铺布隆过滤器构建失败", e);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 早于 web 服务器启动，构建完成后才开始接收请求
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 100;
+    }
+
+    /**
+     * @Description: 商铺id是否可能存在，返回false时一定不存在<br />
+     * @param: Long id <br/>
+     * @Return: boolean <br/>
+     * @Throws:
+     */
+    public boolean mightContain(Long id) {
+        Filter filter = current;
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * @Description: 新增商铺后调用，通知所有节点加入该id<br />
+     * @param: Long id <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    public void add(Long id) {
+        addLocal(id);
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_BLOOM_CHANNEL, id.toString());
+    }
+
+    private void addLocal(Long id) {
+        // 先读 building 再读 current：重建完成时先替换 current 再清除 building，保证新过滤器一定包含该id
+        Filter next = building;
+        if (next != null) {
+            next.add(id);
+        }
+        Filter filter = current;
+        if (filter != null) {
+            filter.add(id);
+        }
+    }
+
+    /**
+     * @Description: 重建布隆过滤器：按主键分页读取所有商铺id写入新的过滤器，完成后替换<br />
+     * @param: <br/>
+     * @Return: void <br/>
+     * @Throws:
+     */
+    @Scheduled(initialDelayString = "${hmdp.shop.bloom.rebuild-ms:3600000}", fixedDelayString = "${hmdp.shop.bloom.rebuild-ms:3600000}")
+    public synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        int count = shopMapper.selectCount(null);
+        Filter filter = new Filter(Math.max(expectedInsertions, count * 2L), fpp);
+        building = filter;
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + PAGE_SIZE));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                for (Shop shop : shops) {
+                    filter.add(shop.getId());
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            current = filter;
+        } finally {
+            building = null;
+        }
+        log.info("商铺布隆过滤器构建完成，约 {} 个商铺，{} 位，{} 个哈希函数，耗时 {} ms",
+                count, filter.bitSize, filter.hashFunctions, System.currentTimeMillis() - begin);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            addLocal(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的商铺id消息：{}", message);
+        }
+    }
+
+    /**
+     * 位数组用 AtomicLongArray 存储，加入和查询都不加锁
+     */
+    private static class Filter {
+        static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+        final long bitSize;
+        final int hashFunctions;
+        final AtomicLongArray bits;
+
+        Filter(long expectedInsertions, double fpp) {
+            // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+            long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bitSize = Math.max(64, (m + 63) / 64 * 64);
+            this.hashFunctions = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+            this.bits = new AtomicLongArray((int) (bitSize / 64));
+        }
+
+        void add(long id) {
+            long hash1 = mix(id + GOLDEN_GAMMA);
+            long hash2 = mix(hash1);
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = Math.floorMod(hash1 + i * hash2, bitSize);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long value;
+                do {
+                    value = bits.get(word);
+                    if ((value & mask) != 0) {
+                        break;
+                    }
+                } while (!bits.compareAndSet(word, value, value | mask));
+            }
+        }
+
+        boolean mightContain(long id) {
+            long hash1 = mix(id + GOLDEN_GAMMA);
+            long hash2 = mix(hash1);
+            for (int i = 0; i < hashFunctions; i++) {
+                long index = Math.floorMod(hash1 + i * hash2, bitSize);
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // splitmix64 的混淆函数
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
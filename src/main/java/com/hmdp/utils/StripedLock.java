@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @Description: 分段的进程内锁表<br/>
+ * 按 key 的哈希映射到固定数量（2的幂，默认1024）的 ReentrantLock 上，不同 key 可能共用一把锁，但锁的数量不随 key 增长，
+ * 替代 synchronized(userId.toString().intern())，不会让字符串常量池随用户数增长；只在本 JVM 内有效，跨节点仍需 redis 锁<br/>
+ * 共用一把锁的不同 key 会互相等待，调用方在等待超时时不能断定是同一个 key 的竞争<br/>
+ * 支持带超时的 tryLock，并统计加锁次数、发生竞争的次数、超时次数和等待时间（微秒）<br/>
+ * @Version 1.0
+ */
+@Component
+public class StripedLock {
+
+    private final ReentrantLock[] stripes;
+
+    private final int mask;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Histogram waitStats = new Histogram();
+
+    public StripedLock(@Value("${hmdp.lock.stripes:1024}") int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @Description: 尝试获取 key 对应的锁，最多等待 timeout<br />
+     * @param: Object key
+     * @param: long timeout
+     * @param: TimeUnit unit <br/>
+     * @Return: boolean 是否获取成功，成功后必须调用 unlock <br/>
+     * @Throws:
+     */
+    public boolean tryLock(Object key, long timeout, TimeUnit unit) {
+        ReentrantLock lock = stripeOf(key);
+        if (lock.tryLock()) {
+            acquired.increment();
+            waitStats.record(0);
+            return true;
+        }
+        contended.increment();
+        long begin = System.nanoTime();
+        boolean locked;
+        try {
+            locked = lock.tryLock(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        waitStats.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        if (locked) {
+            acquired.increment();
+        } else {
+            timeouts.increment();
+        }
+        return locked;
+    }
+
+    public void unlock(Object key) {
+        stripeOf(key).unlock();
+    }
+
+    private ReentrantLock stripeOf(Object key) {
+        // 再散列一次，避免连续的 id 只落在低位相同的几把锁上
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return stripes[h & mask];
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stripes", stripes.length);
+        stats.put("acquired", acquired.sum());
+        stats.put("contended", contended.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("waitMicros", waitStats.snapshot());
+        return stats;
+    }
+}
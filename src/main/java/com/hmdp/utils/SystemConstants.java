@@ -6,4 +6,12 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 优惠券类型：0普通券，1秒杀券，2抽签券
+    public static final int VOUCHER_TYPE_SECKILL = 1;
+    public static final int VOUCHER_TYPE_LOTTERY = 2;
+    // 秒杀失败的提示文字，由 SeckillOutcome 引用；统计按 SeckillOutcome 分类，不依赖提示文字
+    public static final String SECKILL_SOLD_OUT_MSG = "库存不足！";
+    public static final String SECKILL_DUPLICATE_MSG = "用户已经购买过一次！";
+    public static final String SECKILL_IN_PROGRESS_MSG = "本商品一人限购一件，请勿重复抢购";
+    public static final String SECKILL_BUSY_MSG = "抢购人数过多，请稍后再试";
 }
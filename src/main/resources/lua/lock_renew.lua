@@ -0,0 +1,6 @@
+-- 续期锁：锁的值仍是自己的线程标示时才延长过期时间
+-- KEYS[1] 锁的key，ARGV[1] 线程标示，ARGV[2] 过期时间（毫秒）
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,27 @@
+-- 认领到期的抽签券开奖任务
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.当前时间戳
+local now = tonumber(ARGV[2])
+-- 1.3.租约到期时间戳
+local leaseExpire = ARGV[3]
+
+-- 2.数据key
+-- 2.1.来源 zset：待开奖集合，或开奖中集合（租约已过期的任务）
+local sourceKey = KEYS[1]
+-- 2.2.开奖中的抽签券 zset（score 为租约到期时间）
+local processingKey = KEYS[2]
+
+--3.不在来源集合中，或还没有到期（已被其他节点认领），返回0
+local score = redis.call('zscore', sourceKey, voucherId)
+if (score == false or tonumber(score) > now) then
+    return 0
+end
+
+--4.移入开奖中集合并设置租约，成功返回1
+if (sourceKey ~= processingKey) then
+    redis.call('zrem', sourceKey, voucherId)
+end
+redis.call('zadd', processingKey, leaseExpire, voucherId)
+return 1
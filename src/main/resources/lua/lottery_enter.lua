@@ -0,0 +1,23 @@
+-- 抽签券报名
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+
+-- 2.数据key
+-- 2.1.待开奖的抽签券 zset
+local pendingKey = KEYS[1]
+-- 2.2.报名用户集合
+local entriesKey = KEYS[2] .. voucherId
+
+--3.不是待开奖的抽签券（不存在或已开奖），返回2
+if (redis.call('zscore', pendingKey, voucherId) == false) then
+    return 2
+end
+
+--4.报名，已经报过名返回1，成功返回0
+if (redis.call('sadd', entriesKey, userId) == 0) then
+    return 1
+end
+return 0
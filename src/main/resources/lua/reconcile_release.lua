@@ -0,0 +1,17 @@
+-- 对账补偿：释放没有订单的购买名额，并归还库存
+-- 1.参数列表
+-- 1.1.用户id
+local userId = ARGV[1]
+
+-- 2.数据key
+-- 2.1.已购买用户集合 seckill:order:{voucherId}（或分段集合）
+local orderKey = KEYS[1]
+-- 2.2.库存key seckill:stock:{voucherId}（或用户所属分段的库存）
+local stockKey = KEYS[2]
+
+--3.名额仍然存在时才归还库存，重复执行不会多还
+if (redis.call('srem', orderKey, userId) == 1) then
+    redis.call('incrby', stockKey, 1)
+    return 1
+end
+return 0
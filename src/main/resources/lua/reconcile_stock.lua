@@ -0,0 +1,27 @@
+-- 对账补偿：修正 redis 库存
+-- 1.参数列表
+-- 1.1.修正量，正数补回库存，负数扣减库存
+local delta = tonumber(ARGV[1])
+
+-- 2.数据key
+-- 2.1.库存key，未分段时只有一个，分段时为各分段的库存key
+
+--3.补回时加到第一个key；扣减时依次从各key扣减，不扣成负数
+if (delta > 0) then
+    redis.call('incrby', KEYS[1], delta)
+    return delta
+end
+local remaining = -delta
+for i = 1, #KEYS do
+    if (remaining <= 0) then
+        break
+    end
+    local stock = tonumber(redis.call('get', KEYS[i]) or '0')
+    local taken = math.min(math.max(stock, 0), remaining)
+    if (taken > 0) then
+        redis.call('incrby', KEYS[i], -taken)
+        remaining = remaining - taken
+    end
+end
+-- 返回实际修正量
+return delta + remaining
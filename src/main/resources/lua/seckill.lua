@@ -4,7 +4,7 @@ local voucherId = ARGV[1]
 -- 1.2.用户id
 local userId = ARGV[2]
 -- 1.3.订单id
---local orderId = ARGV[3]
+local orderId = ARGV[3]
 
 -- 2.数据key
 -- 2.1.库存key
@@ -13,23 +13,61 @@ local stockKey = KEYS[1] .. voucherId
 -- 2.2.订单key
 --local orderKey = KEYS[2]
 local orderKey = KEYS[2] .. voucherId
+-- 2.3.订单消息队列key
+local streamKey = KEYS[3]
+-- 2.4.售罄广播频道
+local soldOutChannel = KEYS[4]
+-- 2.5.订单状态key
+local statusKey = KEYS[5] .. orderId
+-- 2.6.订单状态过期时间（秒）
+local statusTtl = ARGV[4]
+-- 2.7.已购买用户的记录方式：0为集合，大于0时为按 userId 分片的位图，每片 2^shardBits 位（seckill:buyers:{voucherId}:{分片}）
+local shardBits = tonumber(ARGV[5] or '0')
+local bitKey, bitOffset
+if (shardBits > 0) then
+    local shardSize = 2 ^ shardBits
+    local id = tonumber(userId)
+    bitKey = KEYS[6] .. voucherId .. ':' .. math.floor(id / shardSize)
+    bitOffset = id % shardSize
+end
 
 --3.判断库存
-if (tonumber(redis.call('get', stockKey)) < 1) then
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    -- 库存未预热，返回3
+    return 3
+end
+if (stock < 1) then
     -- 库存不足，返回1
     return 1
 end
 
 --4.检验是否一人一单
-if (redis.call('sismember', orderKey, userId) == 1) then
+local bought
+if (bitKey) then
+    bought = redis.call('getbit', bitKey, bitOffset)
+else
+    bought = redis.call('sismember', orderKey, userId)
+end
+if (bought == 1) then
     -- 已经购买过,返回2
     return 2
 end
 
---5.扣减库存
-redis.call('incrby', stockKey, -1)
---6.将user加入集合
-redis.call('sadd', orderKey, userId)
---redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
---7.成功返回0
+--5.扣减库存，扣到0时广播售罄，各节点在本地拦截后续请求
+if (redis.call('incrby', stockKey, -1) == 0) then
+    redis.call('publish', soldOutChannel, voucherId)
+end
+--6.将user加入集合（或位图）
+if (bitKey) then
+    redis.call('setbit', bitKey, bitOffset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+--7.发送订单消息到队列中 XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+--8.记录订单状态为排队中
+redis.call('hset', statusKey, 'status', 'queued', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+--9.成功返回0
 return 0
@@ -0,0 +1,66 @@
+-- 批量秒杀：一次执行多个秒杀请求，每个请求的逻辑与 seckill.lua 相同，按顺序执行
+-- 1.参数列表
+-- 1.1.订单状态过期时间（秒）
+local statusTtl = ARGV[1]
+-- 1.2.已购买用户的记录方式：0为集合，大于0时为分片位图，与 seckill.lua 相同
+local shardBits = tonumber(ARGV[2])
+local shardSize = 2 ^ shardBits
+-- 1.3.之后每3个参数为一个请求：优惠券id、用户id、订单id
+
+-- 2.数据key（前缀）
+local stockPrefix = KEYS[1]
+local orderPrefix = KEYS[2]
+local streamKey = KEYS[3]
+local soldOutChannel = KEYS[4]
+local statusPrefix = KEYS[5]
+local bitPrefix = KEYS[6]
+
+-- 3.每个请求的结果：0成功，1库存不足，2重复购买，3库存未预热
+local results = {}
+for i = 3, #ARGV, 3 do
+    local voucherId = ARGV[i]
+    local userId = ARGV[i + 1]
+    local orderId = ARGV[i + 2]
+    local stockKey = stockPrefix .. voucherId
+    local orderKey = orderPrefix .. voucherId
+    local bitKey, bitOffset
+    if (shardBits > 0) then
+        local id = tonumber(userId)
+        bitKey = bitPrefix .. voucherId .. ':' .. math.floor(id / shardSize)
+        bitOffset = id % shardSize
+    end
+    local bought
+
+    local stock = tonumber(redis.call('get', stockKey))
+    local result
+    if (stock ~= nil and stock >= 1) then
+        if (bitKey) then
+            bought = redis.call('getbit', bitKey, bitOffset)
+        else
+            bought = redis.call('sismember', orderKey, userId)
+        end
+    end
+    if (stock == nil) then
+        result = 3
+    elseif (stock < 1) then
+        result = 1
+    elseif (bought == 1) then
+        result = 2
+    else
+        if (redis.call('incrby', stockKey, -1) == 0) then
+            redis.call('publish', soldOutChannel, voucherId)
+        end
+        if (bitKey) then
+            redis.call('setbit', bitKey, bitOffset, 1)
+        else
+            redis.call('sadd', orderKey, userId)
+        end
+        redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+        local statusKey = statusPrefix .. orderId
+        redis.call('hset', statusKey, 'status', 'queued', 'userId', userId)
+        redis.call('expire', statusKey, statusTtl)
+        result = 0
+    end
+    results[#results + 1] = result
+end
+return results
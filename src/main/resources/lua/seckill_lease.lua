@@ -0,0 +1,58 @@
+-- 租借库存的秒杀：库存已在节点本地扣减，这里只判断一人一单并发送订单消息
+-- 1.参数列表
+-- 1.1.优惠券id
+local voucherId = ARGV[1]
+-- 1.2.用户id
+local userId = ARGV[2]
+-- 1.3.订单id
+local orderId = ARGV[3]
+-- 1.4.订单状态过期时间（秒）
+local statusTtl = ARGV[4]
+-- 1.5.已购买用户的记录方式：0为集合，大于0时为分片位图，与 seckill.lua 相同
+local shardBits = tonumber(ARGV[5] or '0')
+
+-- 2.数据key
+-- 2.1.订单key
+local orderKey = KEYS[1] .. voucherId
+-- 2.2.订单消息队列key
+local streamKey = KEYS[2]
+-- 2.3.订单状态key
+local statusKey = KEYS[3] .. orderId
+-- 2.4.位图key
+local bitKey, bitOffset
+if (shardBits > 0) then
+    local shardSize = 2 ^ shardBits
+    local id = tonumber(userId)
+    bitKey = KEYS[4] .. voucherId .. ':' .. math.floor(id / shardSize)
+    bitOffset = id % shardSize
+end
+-- 2.5.已租借库存key
+local leasedKey = KEYS[5] .. voucherId
+
+--3.检验是否一人一单
+local bought
+if (bitKey) then
+    bought = redis.call('getbit', bitKey, bitOffset)
+else
+    bought = redis.call('sismember', orderKey, userId)
+end
+if (bought == 1) then
+    -- 已经购买过,返回2
+    return 2
+end
+
+--4.将user加入集合（或位图）
+if (bitKey) then
+    redis.call('setbit', bitKey, bitOffset, 1)
+else
+    redis.call('sadd', orderKey, userId)
+end
+--5.租借的库存已售出一件
+redis.call('incrby', leasedKey, -1)
+--6.发送订单消息到队列中
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+--7.记录订单状态为排队中
+redis.call('hset', statusKey, 'status', 'queued', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
+--8.成功返回0
+return 0
@@ -0,0 +1,36 @@
+-- 分段库存秒杀：在用户所属（按userId哈希）的分段上执行，两个key带相同的hash tag，位于同一个slot
+-- 1.参数列表
+-- 1.1.用户id
+local userId = ARGV[1]
+
+-- 2.数据key
+-- 2.1.所属分段的库存key seckill:stock:{voucherId:segment}
+local stockKey = KEYS[1]
+-- 2.2.所属分段的订单key seckill:order:{voucherId:segment}，同一用户总是落在同一分段，保证全局一人一单
+local orderKey = KEYS[2]
+
+--3.判断库存是否已预热
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    -- 库存未预热，返回3（与 seckill.lua 相同）
+    return 3
+end
+
+--4.检验是否一人一单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    -- 已经购买过,返回2
+    return 2
+end
+
+--5.占用一人一单名额
+redis.call('sadd', orderKey, userId)
+
+--6.判断并扣减本分段库存
+if (stock > 0) then
+    redis.call('incrby', stockKey, -1)
+    -- 成功返回0
+    return 0
+end
+
+--7.本分段库存不足，返回4，由调用方去其他分段扣减，全部不足时再释放名额
+return 4
@@ -0,0 +1,18 @@
+-- 分段库存秒杀：所属分段库存不足时，依次到其他分段扣减库存
+-- 1.数据key
+-- 1.1.分段的库存key seckill:stock:{voucherId:segment}
+local stockKey = KEYS[1]
+
+--2.判断并扣减库存
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    -- 库存未预热，返回3
+    return 3
+end
+if (stock > 0) then
+    redis.call('incrby', stockKey, -1)
+    -- 成功返回0
+    return 0
+end
+-- 库存不足，返回1
+return 1
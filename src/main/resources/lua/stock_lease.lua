@@ -0,0 +1,26 @@
+-- 库存租借：节点从 redis 库存中一次取走一批，在本地扣减
+-- 1.参数列表
+-- 1.1.每次租借的数量
+local chunk = tonumber(ARGV[1])
+
+-- 2.数据key
+-- 2.1.库存key seckill:stock:{voucherId}
+local stockKey = KEYS[1]
+-- 2.2.已租借库存key seckill:leased:{voucherId}
+local leasedKey = KEYS[2]
+
+--3.判断库存
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil) then
+    -- 库存未预热，返回-1
+    return -1
+end
+
+--4.取走 min(库存, 每批数量)，库存不足时返回0
+local taken = math.min(stock, chunk)
+if (taken > 0) then
+    redis.call('incrby', stockKey, -taken)
+    redis.call('incrby', leasedKey, taken)
+    return taken
+end
+return 0
@@ -0,0 +1,15 @@
+-- 归还租借的库存
+-- 1.参数列表
+-- 1.1.归还的数量
+local count = tonumber(ARGV[1])
+
+-- 2.数据key
+-- 2.1.库存key seckill:stock:{voucherId}
+local stockKey = KEYS[1]
+-- 2.2.已租借库存key seckill:leased:{voucherId}
+local leasedKey = KEYS[2]
+
+--3.库存和已租借库存一起修改
+redis.call('incrby', stockKey, count)
+redis.call('incrby', leasedKey, -count)
+return count
@@ -0,0 +1,6 @@
+-- 释放锁：锁的值是自己的线程标示时才删除，判断和删除原子执行
+-- KEYS[1] 锁的key，ARGV[1] 线程标示
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
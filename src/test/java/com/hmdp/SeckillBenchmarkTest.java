@@ -0,0 +1,211 @@
+package com.hmdp;
+
+import cn.hutool.core.thread.ThreadUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import com.hmdp.utils.Histogram;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillVoucherCache;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 秒杀压测：N 个用户（每人重复请求几次）同时抢同一张券，依次测试四种实现，
+ * 输出吞吐量、p50/p99/p999 延迟、超卖数和重复下单数<br/>
+ * 会清空订单、改写库存并广播变更，只在 -Dseckill.bench=true 时运行，使用 benchmark 配置（application-benchmark.yaml）
+ * 指向的独立数据库和 redis 实例；启动时新建一张压测券，每种实现开始前重置它的库存、时间和订单<br/>
+ * 用户数、库存等可以通过 -Dseckill.bench.* 系统属性调整，例如：
+ * mvn test -Dtest=SeckillBenchmarkTest -Dseckill.bench=true
+ */
+@Slf4j
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "seckill.bench", matches = "true")
+@ActiveProfiles("benchmark")
+@SpringBootTest
+class SeckillBenchmarkTest {
+
+    private static final int USERS = Integer.getInteger("seckill.bench.users", 1000);
+    private static final int REQUESTS_PER_USER = Integer.getInteger("seckill.bench.requests-per-user", 2);
+    private static final int STOCK = Integer.getInteger("seckill.bench.stock", 100);
+    private static final int THREADS = Integer.getInteger("seckill.bench.threads", 200);
+    // 用户id从这里开始编号，避免和真实用户的订单混在一起
+    private static final long USER_ID_BASE = 1_000_000_000L;
+
+    @Resource
+    private VoucherOrderServiceImpl voucherOrderService;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    private Long voucherId;
+
+    @Test
+    @SneakyThrows
+    @DisplayName("四种秒杀实现的压测对比")
+    void benchmark() {
+        Map<String, Function<Long, Result>> strategies = new LinkedHashMap<>();
+        strategies.put("easy", voucherOrderService::seckillVoucherEasy);
+        strategies.put("onlyOne", voucherOrderService::seckillVoucherOnlyOne);
+        strategies.put("redisLock", voucherOrderService::seckillVoucherWithRedisLock);
+        strategies.put("async", voucherOrderService::seckillVoucherAsync);
+
+        createVoucher();
+        Map<String, Map<String, Object>> reports = new LinkedHashMap<>();
+        for (Map.Entry<String, Function<Long, Result>> entry : strategies.entrySet()) {
+            reset();
+            reports.put(entry.getKey(), run(entry.getValue(), "async".equals(entry.getKey())));
+        }
+
+        log.info("用户数={}，每人请求={}，库存={}，线程数={}", USERS, REQUESTS_PER_USER, STOCK, THREADS);
+        reports.forEach((name, report) -> log.info("{} {}", name, report));
+        // 正式使用的异步实现不能超卖、不能重复下单
+        Map<String, Object> async = reports.get("async");
+        assertEquals(0L, async.get("oversell"), "异步秒杀出现超卖：" + async);
+        assertEquals(0L, async.get("duplicates"), "异步秒杀出现重复下单：" + async);
+    }
+
+    private void createVoucher() {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券");
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(SystemConstants.VOUCHER_TYPE_SECKILL);
+        voucher.setStatus(1);
+        voucherService.save(voucher);
+        voucherId = voucher.getId();
+
+        SeckillVoucher seckillVoucher = new SeckillVoucher();
+        seckillVoucher.setVoucherId(voucherId);
+        seckillVoucher.setStock(STOCK);
+        seckillVoucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        seckillVoucher.setEndTime(LocalDateTime.now().plusHours(1));
+        seckillVoucherService.save(seckillVoucher);
+    }
+
+    private void reset() {
+        seckillVoucherService.update()
+                .set("stock", STOCK)
+                .set("begin_time", LocalDateTime.now().minusHours(1))
+                .set("end_time", LocalDateTime.now().plusHours(1))
+                .eq("voucher_id", voucherId)
+                .update();
+        voucherOrderService.update().eq("voucher_id", voucherId).remove();
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucherId, String.valueOf(STOCK));
+        stringRedisTemplate.delete(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+        seckillVoucherCache.publishChange(voucherId);
+        soldOutRegistry.publishRestock(voucherId);
+        // 等待各节点处理广播
+        ThreadUtil.sleep(500);
+    }
+
+    @SneakyThrows
+    private Map<String, Object> run(Function<Long, Result> strategy, boolean async) {
+        Histogram latency = new Histogram();
+        AtomicLong success = new AtomicLong();
+        ExecutorService executorService = ThreadUtil.newExecutor(THREADS);
+        CountDownLatch countDownLatch = new CountDownLatch(USERS * REQUESTS_PER_USER);
+        long begin = System.nanoTime();
+        for (int i = 0; i < REQUESTS_PER_USER; i++) {
+            for (int u = 0; u < USERS; u++) {
+                long userId = USER_ID_BASE + u;
+                executorService.execute(() -> {
+                    UserDTO user = new UserDTO();
+                    user.setId(userId);
+                    UserHolder.saveUser(user);
+                    long start = System.nanoTime();
+                    try {
+                        Result result = strategy.apply(voucherId);
+                        if (result.getSuccess()) {
+                            success.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        log.warn("秒杀请求异常", e);
+                    } finally {
+                        latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                        UserHolder.removeUser();
+                        countDownLatch.countDown();
+                    }
+                });
+            }
+        }
+        countDownLatch.await();
+        long elapsed = System.nanoTime() - begin;
+        executorService.shutdown();
+
+        // 异步实现等待订单全部落库
+        List<VoucherOrder> orders = async ? awaitOrders(success.get()) : listOrders();
+        long duplicates = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getUserId, Collectors.counting()))
+                .values().stream().mapToLong(count -> count - 1).sum();
+        int stock = seckillVoucherService.getById(voucherId).getStock();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("throughput", (USERS * REQUESTS_PER_USER) * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1));
+        report.put("success", success.get());
+        report.put("orders", orders.size());
+        report.put("oversell", Math.max(0L, orders.size() - STOCK) + Math.max(0L, -stock));
+        report.put("duplicates", duplicates);
+        report.put("latencyMicros", latency.snapshot());
+        return report;
+    }
+
+    private List<VoucherOrder> awaitOrders(long expected) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        List<VoucherOrder> orders = listOrders();
+        while (orders.size() < expected && System.currentTimeMillis() < deadline) {
+            ThreadUtil.sleep(200);
+            orders = listOrders();
+        }
+        return orders;
+    }
+
+    private List<VoucherOrder> listOrders() {
+        return voucherOrderService.query()
+                .select("id", "user_id")
+                .eq("voucher_id", voucherId)
+                .list();
+    }
+}
@@ -0,0 +1,87 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+
+    @Test
+    @DisplayName("小于16的值精确记录")
+    void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (long i = 0; i < 16; i++) {
+            histogram.record(i);
+        }
+        assertEquals(16, histogram.getCount());
+        assertEquals(120, histogram.getSum());
+        assertEquals(15, histogram.getMax());
+        assertEquals(7, histogram.getPercentile(50));
+        assertEquals(15, histogram.getPercentile(100));
+    }
+
+    @Test
+    @DisplayName("百分位误差在12.5%以内，且不超过最大值")
+    void percentileWithinBucketError() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        assertWithin(50000, histogram.getPercentile(50));
+        assertWithin(99000, histogram.getPercentile(99));
+        assertEquals(100000, histogram.getPercentile(100));
+        assertEquals(100000, histogram.getMax());
+    }
+
+    @Test
+    @DisplayName("负数按0记录，reset 后清空")
+    void negativeAndReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+
+        histogram.reset();
+        Map<String, Object> snapshot = histogram.snapshot();
+        assertEquals(0L, snapshot.get("count"));
+        assertEquals(0L, snapshot.get("p99"));
+        assertEquals(0L, snapshot.get("max"));
+    }
+
+    @Test
+    @DisplayName("多线程并发记录不丢失")
+    void concurrentRecord() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        int threads = 8;
+        int perThread = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i);
+                }
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals((long) threads * perThread, histogram.getCount());
+        assertEquals((long) threads * perThread * (perThread - 1) / 2, histogram.getSum());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, "expected ~" + expected + " but was " + actual);
+    }
+}
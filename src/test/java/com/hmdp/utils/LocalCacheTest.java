@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LocalCacheTest {
+
+    private static final int SEGMENTS = 16;
+
+    // 每段的权重上限
+    private static final long SEGMENT_WEIGHT = 25;
+
+    private static final long TTL = 60000;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private LocalCache localCache;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        localCache = new LocalCache(stringRedisTemplate, mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(localCache, "enabled", true);
+        ReflectionTestUtils.setField(localCache, "maxWeight", SEGMENT_WEIGHT * SEGMENTS);
+        ReflectionTestUtils.setField(localCache, "ttlSeconds", 60L);
+        localCache.init();
+    }
+
+    @Test
+    @DisplayName("写入后可以读到，空值也会缓存")
+    void putAndGet() {
+        localCache.put("cache:shop:1", "shop", 1, TTL, localCache.generation());
+        localCache.put("cache:shop:2", null, 1, TTL, localCache.generation());
+
+        assertEquals("shop", localCache.get("cache:shop:1").getValue());
+        LocalCache.Entry empty = localCache.get("cache:shop:2");
+        assertNotNull(empty);
+        assertNull(empty.getValue());
+        assertNull(localCache.get("cache:shop:3"));
+    }
+
+    @Test
+    @DisplayName("超过权重上限时淘汰最久未访问的条目")
+    void evictsLeastRecentlyUsedByWeight() {
+        List<String> keys = keysInSameSegment(3);
+        String a = keys.get(0);
+        String b = keys.get(1);
+        String c = keys.get(2);
+        // 每个条目的权重（含 key 长度）为10，一段最多放下2个
+        put(a, 10);
+        put(b, 10);
+        // 访问 a 之后，b 成为最久未访问的条目
+        assertNotNull(localCache.get(a));
+        put(c, 10);
+
+        assertNotNull(localCache.get(a));
+        assertNull(localCache.get(b));
+        assertNotNull(localCache.get(c));
+    }
+
+    @Test
+    @DisplayName("覆盖写入时按新的权重计算")
+    void replaceUpdatesWeight() {
+        List<String> keys = keysInSameSegment(2);
+        String a = keys.get(0);
+        String b = keys.get(1);
+        put(a, 20);
+        // 覆盖为较小的条目后，两个条目可以同时放下
+        put(a, 10);
+        put(b, 10);
+
+        assertNotNull(localCache.get(a));
+        assertNotNull(localCache.get(b));
+    }
+
+    @Test
+    @DisplayName("单个条目超过一段的权重上限时不缓存")
+    void oversizedEntryIsNotCached() {
+        localCache.put("cache:shop:1", "shop", (int) SEGMENT_WEIGHT + 1, TTL, localCache.generation());
+        assertNull(localCache.get("cache:shop:1"));
+    }
+
+    @Test
+    @DisplayName("过期的条目读不到")
+    void expiredEntryIsRemoved() {
+        localCache.put("cache:shop:1", "shop", 1, 0, localCache.generation());
+        assertNull(localCache.get("cache:shop:1"));
+    }
+
+    @Test
+    @DisplayName("读取期间发生删除时，旧值不写入本地缓存")
+    void stalePutRejectedAfterEvict() {
+        long generation = localCache.generation();
+        localCache.evict("cache:shop:1");
+        localCache.put("cache:shop:1", "old", 1, TTL, generation);
+        assertNull(localCache.get("cache:shop:1"));
+        // 只删除本地缓存并广播，redis 缓存由 RedisUtil 删除
+        verify(stringRedisTemplate, never()).delete("cache:shop:1");
+        verify(stringRedisTemplate).convertAndSend(RedisConstants.CACHE_EVICT_CHANNEL, "cache:shop:1");
+
+        // 删除之后重新读取的值可以写入
+        localCache.put("cache:shop:1", "new", 1, TTL, localCache.generation());
+        assertEquals("new", localCache.get("cache:shop:1").getValue());
+    }
+
+    @Test
+    @DisplayName("收到其他节点的删除广播时删除本地条目")
+    void evictMessageInvalidates() {
+        localCache.put("cache:shop:1", "shop", 1, TTL, localCache.generation());
+        long generation = localCache.generation();
+
+        Message message = mock(Message.class);
+        when(message.getBody()).thenReturn("cache:shop:1".getBytes(StandardCharsets.UTF_8));
+        localCache.onMessage(message, null);
+
+        assertNull(localCache.get("cache:shop:1"));
+        localCache.put("cache:shop:1", "old", 1, TTL, generation);
+        assertNull(localCache.get("cache:shop:1"));
+    }
+
+    @Test
+    @DisplayName("关闭时不读不写")
+    void disabled() {
+        ReflectionTestUtils.setField(localCache, "enabled", false);
+        localCache.put("cache:shop:1", "shop", 1, TTL, localCache.generation());
+        assertNull(localCache.get("cache:shop:1"));
+    }
+
+    /**
+     * 写入权重（含 key 长度）为 weight 的条目
+     */
+    private void put(String key, int weight) {
+        localCache.put(key, key, weight - key.length(), TTL, localCache.generation());
+    }
+
+    private static List<String> keysInSameSegment(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; keys.size() < count; i++) {
+            String key = "k" + i;
+            if ((key.hashCode() & 0x7fffffff) % SEGMENTS == 0) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
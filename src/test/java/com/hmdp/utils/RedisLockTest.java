@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RedisLockTest {
+
+    private static final String KEY = "order:1:1";
+
+    private static final String REDIS_KEY = "lock:" + KEY;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ValueOperations<String, String> valueOperations;
+
+    private RedisLock redisLock;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        redisLock = new RedisLock(stringRedisTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        redisLock.shutdown();
+    }
+
+    @Test
+    @DisplayName("重入只在本地计数，最后一次释放才删除 redis 中的锁")
+    void reentrantLockReleasedOnLastUnlock() {
+        when(valueOperations.setIfAbsent(eq(REDIS_KEY), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+
+        assertTrue(redisLock.tryLock(KEY, 0, TimeUnit.SECONDS));
+        assertTrue(redisLock.tryLock(KEY, 0, TimeUnit.SECONDS));
+        verify(valueOperations, times(1)).setIfAbsent(eq(REDIS_KEY), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        redisLock.unLock(KEY);
+        verify(stringRedisTemplate, never()).execute(any(), any(), any());
+
+        redisLock.unLock(KEY);
+        verify(stringRedisTemplate).execute(any(), eq(Collections.singletonList(REDIS_KEY)), anyString());
+        assertEquals(2L, redisLock.getStats().get("acquired"));
+        assertEquals(0, redisLock.getStats().get("localKeys"));
+    }
+
+    @Test
+    @DisplayName("释放时用加锁时的线程标示比较，只删除自己的锁")
+    void unlockComparesOwnThreadId() {
+        ArgumentCaptor<String> threadId = ArgumentCaptor.forClass(String.class);
+        when(valueOperations.setIfAbsent(eq(REDIS_KEY), threadId.capture(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+
+        assertTrue(redisLock.tryLock(KEY, 0, 5, TimeUnit.SECONDS));
+        redisLock.unLock(KEY);
+
+        verify(valueOperations).setIfAbsent(REDIS_KEY, threadId.getValue(), 5000L, TimeUnit.MILLISECONDS);
+        verify(stringRedisTemplate).execute(any(), eq(Collections.singletonList(REDIS_KEY)), eq(threadId.getValue()));
+    }
+
+    @Test
+    @DisplayName("释放未持有的锁不操作 redis")
+    void unlockWithoutHoldingIsIgnored() {
+        redisLock.unLock(KEY);
+        verify(stringRedisTemplate, never()).execute(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("redis 锁被其他节点持有时等待超时")
+    void redisContendedTimesOut() {
+        when(valueOperations.setIfAbsent(eq(REDIS_KEY), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(false);
+
+        assertFalse(redisLock.tryLock(KEY, 0, TimeUnit.SECONDS));
+        assertEquals(1L, redisLock.getStats().get("redisContended"));
+        assertEquals(1L, redisLock.getStats().get("timeouts"));
+        assertEquals(0, redisLock.getStats().get("localKeys"));
+    }
+
+    @Test
+    @DisplayName("同节点其他线程在本地排队，不访问 redis")
+    void localContendedWaitsLocally() throws Exception {
+        when(valueOperations.setIfAbsent(eq(REDIS_KEY), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(redisLock.tryLock(KEY, 0, TimeUnit.SECONDS));
+            Future<Boolean> other = executor.submit(() -> redisLock.tryLock(KEY, 50, TimeUnit.MILLISECONDS));
+            assertFalse(other.get(5, TimeUnit.SECONDS));
+            verify(valueOperations, times(1)).setIfAbsent(eq(REDIS_KEY), anyString(), anyLong(), eq(TimeUnit.MILLISECONDS));
+            assertEquals(1L, redisLock.getStats().get("localContended"));
+
+            redisLock.unLock(KEY);
+            Future<Boolean> next = executor.submit(() -> {
+                boolean locked = redisLock.tryLock(KEY, 50, TimeUnit.MILLISECONDS);
+                if (locked) {
+                    redisLock.unLock(KEY);
+                }
+                return locked;
+            });
+            assertTrue(next.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, redisLock.getStats().get("localKeys"));
+    }
+
+    @Test
+    @DisplayName("不指定过期时间时由看门狗续期，锁不再属于自己时停止续期")
+    void watchdogRenewsUntilLockLost() {
+        ArgumentCaptor<String> threadId = ArgumentCaptor.forClass(String.class);
+        when(valueOperations.setIfAbsent(eq(REDIS_KEY), threadId.capture(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(true);
+
+        assertTrue(redisLock.tryLock(KEY, 0, TimeUnit.SECONDS));
+        verify(valueOperations).setIfAbsent(REDIS_KEY, threadId.getValue(), 30000L, TimeUnit.MILLISECONDS);
+
+        // 续期间隔为10秒，这里直接触发一次续期
+        when(stringRedisTemplate.execute(any(), eq(Collections.singletonList(REDIS_KEY)), eq(threadId.getValue()), eq("30000")))
+                .thenReturn(1L);
+        ReflectionTestUtils.invokeMethod(redisLock, "renew", REDIS_KEY, threadId.getValue());
+        assertFalse(renewal().isCancelled());
+
+        when(stringRedisTemplate.execute(any(), eq(Collections.singletonList(REDIS_KEY)), eq(threadId.getValue()), eq("30000")))
+                .thenReturn(0L);
+        ReflectionTestUtils.invokeMethod(redisLock, "renew", REDIS_KEY, threadId.getValue());
+        assertTrue(renewal().isCancelled());
+
+        redisLock.unLock(KEY);
+        assertEquals(0, redisLock.getStats().get("localKeys"));
+    }
+
+    private ScheduledFuture<?> renewal() {
+        Map<?, ?> localLocks = (Map<?, ?>) ReflectionTestUtils.getField(redisLock, "localLocks");
+        return (ScheduledFuture<?>) ReflectionTestUtils.getField(localLocks.get(REDIS_KEY), "renewal");
+    }
+}
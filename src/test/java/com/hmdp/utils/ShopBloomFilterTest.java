@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShopBloomFilterTest {
+
+    private ShopMapper shopMapper;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ShopBloomFilter bloomFilter;
+
+    @BeforeEach
+    void setUp() {
+        shopMapper = mock(ShopMapper.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        bloomFilter = new ShopBloomFilter(shopMapper, stringRedisTemplate, mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(bloomFilter, "expectedInsertions", 10000L);
+        ReflectionTestUtils.setField(bloomFilter, "fpp", 0.01);
+    }
+
+    @Test
+    @DisplayName("构建完成之前全部放行")
+    void allowsAllBeforeBuilt() {
+        assertTrue(bloomFilter.mightContain(1L));
+        assertTrue(bloomFilter.mightContain(Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("分页构建后，已有的商铺id全部命中，不存在的id误判率不超过配置")
+    void noFalseNegativesAfterRebuild() {
+        when(shopMapper.selectCount(null)).thenReturn(7000);
+        when(shopMapper.selectList(any())).thenReturn(shops(1, 5000), shops(5001, 7000), Collections.emptyList());
+
+        bloomFilter.rebuild();
+
+        for (long id = 1; id <= 7000; id++) {
+            assertTrue(bloomFilter.mightContain(id), "商铺 " + id + " 被误判为不存在");
+        }
+        int falsePositives = 0;
+        int probes = 100000;
+        for (long id = 100001; id <= 100000 + probes; id++) {
+            if (bloomFilter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < probes * 0.01, "误判 " + falsePositives + " 次");
+    }
+
+    @Test
+    @DisplayName("按预计数量和商铺数量的2倍中较大的值计算大小")
+    void sizing() {
+        when(shopMapper.selectList(any())).thenReturn(Collections.emptyList());
+
+        ReflectionTestUtils.setField(bloomFilter, "expectedInsertions", 1000L);
+        when(shopMapper.selectCount(null)).thenReturn(100);
+        bloomFilter.rebuild();
+        // m = -1000 * ln(0.01) / (ln2)^2 = 9586，按64位取整；k = m / n * ln2 = 7
+        assertEquals(9600L, filterField("bitSize"));
+        assertEquals(7, filterField("hashFunctions"));
+
+        when(shopMapper.selectCount(null)).thenReturn(1000);
+        bloomFilter.rebuild();
+        assertEquals(19200L, filterField("bitSize"));
+        assertEquals(7, filterField("hashFunctions"));
+    }
+
+    @Test
+    @DisplayName("新增商铺立即加入，并广播给其他节点")
+    void addAndBroadcast() {
+        when(shopMapper.selectCount(null)).thenReturn(0);
+        when(shopMapper.selectList(any())).thenReturn(Collections.emptyList());
+        bloomFilter.rebuild();
+        assertFalse(bloomFilter.mightContain(42L));
+
+        bloomFilter.add(42L);
+        assertTrue(bloomFilter.mightContain(42L));
+        verify(stringRedisTemplate).convertAndSend(RedisConstants.SHOP_BLOOM_CHANNEL, "42");
+
+        Message message = mock(Message.class);
+        when(message.getBody()).thenReturn("43".getBytes(StandardCharsets.UTF_8));
+        bloomFilter.onMessage(message, null);
+        assertTrue(bloomFilter.mightContain(43L));
+    }
+
+    private Object filterField(String name) {
+        return ReflectionTestUtils.getField(ReflectionTestUtils.getField(bloomFilter, "current"), name);
+    }
+
+    private static List<Shop> shops(long from, long to) {
+        List<Shop> shops = new ArrayList<>();
+        for (long id = from; id <= to; id++) {
+            Shop shop = new Shop();
+            shop.setId(id);
+            shops.add(shop);
+        }
+        return shops;
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedLockTest {
+
+    @Test
+    @DisplayName("锁的数量向上取整到2的幂")
+    void stripesRoundUpToPowerOfTwo() {
+        assertEquals(1024, new StripedLock(1024).getStats().get("stripes"));
+        assertEquals(1024, new StripedLock(1000).getStats().get("stripes"));
+        assertEquals(2, new StripedLock(1).getStats().get("stripes"));
+        assertEquals(2, new StripedLock(0).getStats().get("stripes"));
+    }
+
+    @Test
+    @DisplayName("同一线程可重入")
+    void reentrantInSameThread() {
+        StripedLock lock = new StripedLock(16);
+        assertTrue(lock.tryLock(1L, 0, TimeUnit.MILLISECONDS));
+        assertTrue(lock.tryLock(1L, 0, TimeUnit.MILLISECONDS));
+        lock.unlock(1L);
+        lock.unlock(1L);
+        assertEquals(2L, lock.getStats().get("acquired"));
+    }
+
+    @Test
+    @DisplayName("其他线程等待超时，释放后可以获取")
+    void otherThreadTimesOutUntilUnlocked() throws Exception {
+        StripedLock lock = new StripedLock(16);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(lock.tryLock(1L, 0, TimeUnit.MILLISECONDS));
+            Future<Boolean> blocked = executor.submit(() -> lock.tryLock(1L, 50, TimeUnit.MILLISECONDS));
+            assertFalse(blocked.get(5, TimeUnit.SECONDS));
+
+            lock.unlock(1L);
+            Future<Boolean> acquired = executor.submit(() -> {
+                boolean locked = lock.tryLock(1L, 50, TimeUnit.MILLISECONDS);
+                if (locked) {
+                    lock.unlock(1L);
+                }
+                return locked;
+            });
+            assertTrue(acquired.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Map<String, Object> stats = lock.getStats();
+        assertEquals(2L, stats.get("acquired"));
+        assertEquals(1L, stats.get("contended"));
+        assertEquals(1L, stats.get("timeouts"));
+    }
+
+    @Test
+    @DisplayName("不同 key 落在同一把锁上时互相等待")
+    void differentKeysShareStripe() throws Exception {
+        // 最少2把锁，取落在同一把锁上的两个 key
+        StripedLock lock = new StripedLock(2);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(lock.tryLock(1L, 0, TimeUnit.MILLISECONDS));
+            long other = -1;
+            for (long key = 2; key < 100 && other < 0; key++) {
+                long candidate = key;
+                Future<Boolean> probe = executor.submit(() -> {
+                    boolean locked = lock.tryLock(candidate, 0, TimeUnit.MILLISECONDS);
+                    if (locked) {
+                        lock.unlock(candidate);
+                    }
+                    return locked;
+                });
+                if (!probe.get(5, TimeUnit.SECONDS)) {
+                    other = candidate;
+                }
+            }
+            assertTrue(other > 0, "应当存在与 key 1 共用一把锁的 key");
+            lock.unlock(1L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}